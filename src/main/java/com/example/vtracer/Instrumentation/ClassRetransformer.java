@@ -0,0 +1,91 @@
+package com.example.vtracer.Instrumentation;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+
+/**
+ * Retransforms already loaded classes in batches
+ *
+ * <p>The JVM re-runs the installed transformer from each class's original bytes, so the result
+ * reflects the current matchers and exclusions. Batches bound each safepoint, and a pause between
+ * them lets the application run so a large retransformation never shows up as one long stall. Each
+ * call also pays a fixed safepoint cost, so batches should not be much smaller than a thousand. A
+ * failing batch is retried class by class so one bad class does not block the rest.
+ */
+public class ClassRetransformer {
+
+  private final Instrumentation inst;
+  private final int batchSize;
+  private final long pauseNanos;
+
+  public ClassRetransformer(Instrumentation inst, int batchSize, long pauseNanos) {
+    this.inst = inst;
+    this.batchSize = batchSize;
+    this.pauseNanos = pauseNanos;
+  }
+
+  /**
+   * Retransform every loaded, modifiable class with one of the given names
+   *
+   * @return number of classes retransformed
+   */
+  public int retransform(Set<String> classNames) {
+    return retransform(loadedClasses(classNames::contains));
+  }
+
+  /** Loaded, modifiable classes whose name passes the filter */
+  public List<Class<?>> loadedClasses(Predicate<String> nameFilter) {
+    List<Class<?>> classes = new ArrayList<>();
+    for (Class<?> type : inst.getAllLoadedClasses()) {
+      if (nameFilter.test(type.getName()) && inst.isModifiableClass(type)) {
+        classes.add(type);
+      }
+    }
+    return classes;
+  }
+
+  /**
+   * Retransform the given classes
+   *
+   * @return number of classes retransformed
+   */
+  public int retransform(Collection<Class<?>> classes) {
+    List<Class<?>> pending = new ArrayList<>(classes);
+    int done = 0;
+
+    for (int from = 0; from < pending.size(); from += batchSize) {
+      if (from > 0 && pauseNanos > 0) {
+        LockSupport.parkNanos(pauseNanos);
+      }
+      List<Class<?>> batch = pending.subList(from, Math.min(from + batchSize, pending.size()));
+      try {
+        inst.retransformClasses(batch.toArray(new Class<?>[0]));
+        done += batch.size();
+      } catch (UnmodifiableClassException | RuntimeException | LinkageError e) {
+        done += retransformEach(batch);
+      }
+    }
+
+    return done;
+  }
+
+  private int retransformEach(List<Class<?>> batch) {
+    int done = 0;
+    for (Class<?> type : batch) {
+      try {
+        inst.retransformClasses(type);
+        done++;
+      } catch (UnmodifiableClassException | RuntimeException | LinkageError e) {
+        System.err.println(
+            "[VTracer] Failed to retransform " + type.getName() + ": " + e.getMessage());
+      }
+    }
+    return done;
+  }
+}
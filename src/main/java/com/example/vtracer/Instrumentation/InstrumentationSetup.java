@@ -1,28 +1,66 @@
 package com.example.vtracer.Instrumentation;
 
+import com.example.vtracer.agent.AttachMetrics;
 import com.example.vtracer.agent.VTracerAgent;
+import com.example.vtracer.config.VTracerConfig;
+import com.example.vtracer.tracing.model.MethodRegistry;
 import java.lang.instrument.Instrumentation;
+import java.util.List;
 import net.bytebuddy.agent.builder.AgentBuilder;
 import net.bytebuddy.asm.Advice;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.implementation.bytecode.assign.Assigner;
+import net.bytebuddy.implementation.bytecode.constant.IntegerConstant;
 import net.bytebuddy.matcher.ElementMatchers;
 
 import static net.bytebuddy.matcher.ElementMatchers.*;
 
-/** Sets up ByteBuddy instrumentation */
+/**
+ * Sets up ByteBuddy instrumentation
+ *
+ * <p>The transformer is registered first, behind a raw-name prefix filter, so classes loaded from
+ * then on are instrumented right away. Already loaded classes are retransformed afterwards in
+ * throttled batches rather than in one pass.
+ */
 public class InstrumentationSetup {
 
   public void install(VTracerAgent.VTracerContext context, Instrumentation inst) {
+    MethodExclusions exclusions = context.getExclusions();
+    // Null unless the hybrid engine picks the methods
+    MethodSelection selection = context.getMethodSelection();
+    AttachMetrics metrics = context.getAttachMetrics();
+    Advice advice =
+        Advice.withCustomMapping()
+            .bind(MethodId.class, new MethodIdMapping(context))
+            .to(MethodAdvice.class);
+
     AgentBuilder agentBuilder =
         new AgentBuilder.Default()
             .with(AgentBuilder.RedefinitionStrategy.RETRANSFORMATION)
             .with(AgentBuilder.InitializationStrategy.NoOp.INSTANCE)
             .with(AgentBuilder.TypeStrategy.Default.REDEFINE)
+            // Super types are resolved again for every subclass - cache the parsed descriptions
+            .with(
+                new AgentBuilder.PoolStrategy.WithTypePoolCache.Simple(
+                    context.getTypePoolCache()))
             .ignore(ElementMatchers.nameStartsWith("com.example.vtracer"))
-            .type(context.getConfig().getClassMatcher())
+            // Evaluated against the current config and selection, so a reinstrument command or a
+            // new hot-path selection takes effect on retransformation
+            .type(type -> matches(context, selection, type.getName()))
             .transform(
                 (builder, typeDescription, classLoader, module, protectionDomain) ->
+                    // Re-read on every retransformation, so excluded methods lose their advice
                     builder.visit(
-                        Advice.to(MethodAdvice.class).on(context.getConfig().getMethodMatcher())))
+                        advice.on(
+                            context
+                                .getConfig()
+                                .getMethodMatcher()
+                                .and(not(exclusions.matcherFor(typeDescription.getName())))
+                                .and(
+                                    selection != null
+                                        ? selection.matcherFor(typeDescription.getName())
+                                        : any()))))
             .with(
                 new AgentBuilder.Listener.Adapter() {
                   @Override
@@ -49,6 +87,48 @@ public class InstrumentationSetup {
                   }
                 });
 
-    agentBuilder.installOn(inst);
+    inst.addTransformer(new PrefixFilteringTransformer(agentBuilder.makeRaw(), metrics), true);
+    metrics.transformerReady();
+
+    ClassRetransformer retransformer = context.getRetransformer();
+    List<Class<?>> loaded =
+        retransformer.loadedClasses(name -> matches(context, selection, name));
+    metrics.retransformed(loaded.size(), retransformer.retransform(loaded));
+  }
+
+  private static boolean matches(
+      VTracerAgent.VTracerContext context, MethodSelection selection, String className) {
+    return context.getConfig().matchesClass(className)
+        && (selection == null || selection.containsClass(className));
+  }
+
+  /**
+   * Resolves {@link MethodId} to a registry ID constant while the method is being transformed, and
+   * hands the method's minimum duration to the collector
+   */
+  private static class MethodIdMapping implements Advice.OffsetMapping {
+    private final MethodRegistry registry;
+    private final VTracerAgent.VTracerContext context;
+
+    MethodIdMapping(VTracerAgent.VTracerContext context) {
+      this.registry = context.getMethodRegistry();
+      this.context = context;
+    }
+
+    @Override
+    public Target resolve(
+        TypeDescription instrumentedType,
+        MethodDescription instrumentedMethod,
+        Assigner assigner,
+        Advice.ArgumentHandler argumentHandler,
+        Sort sort) {
+      String className = instrumentedType.getName();
+      int methodId = registry.register(className, instrumentedMethod.getName());
+      VTracerConfig config = context.getConfig();
+      if (config.hasMinDuration()) {
+        context.getCollector().setMinDuration(methodId, config.getMinDurationNanos(className));
+      }
+      return new Target.ForStackManipulation(IntegerConstant.forValue(methodId));
+    }
   }
 }
@@ -14,50 +14,42 @@ public class MethodAdvice {
   /**
    * Called on method entry
    *
-   * @return timestamp for passing to exit advice
+   * @return true if the collector tracked this call and must see the matching exit
    */
   @Advice.OnMethodEnter(inline = true)
-  public static long enter(
-      @Advice.Origin("#t") String className, @Advice.Origin("#m") String methodName) {
+  public static boolean enter(@MethodId int methodId) {
     try {
       VTracerAgent.VTracerContext ctx = VTracerAgent.getContext();
 
       // Fast path: check if running
       if (ctx == null || !ctx.isRunning()) {
-        return 0L;
+        return false;
       }
 
-      long threadId = Thread.currentThread().getId();
-      long timestamp = System.nanoTime();
-
-      ctx.getCollector().onMethodEnter(threadId, className, methodName, timestamp);
-
-      return timestamp;
+      return ctx.getCollector().onMethodEnter(methodId);
 
     } catch (Throwable t) {
       // Never throw from instrumentation
-      return 0L;
+      return false;
     }
   }
 
   /** Called on method exit (normal or exceptional) */
   @Advice.OnMethodExit(inline = true, onThrowable = Throwable.class)
-  public static void exit(@Advice.Enter long startTime, @Advice.Thrown Throwable thrown) {
+  public static void exit(@Advice.Enter boolean tracked, @Advice.Thrown Throwable thrown) {
     try {
-      // Early exit if not traced
-      if (startTime == 0L) {
+      // Early exit if not tracked
+      if (!tracked) {
         return;
       }
 
+      // No running check: a tracked enter must always be balanced
       VTracerAgent.VTracerContext ctx = VTracerAgent.getContext();
-      if (ctx == null || !ctx.isRunning()) {
+      if (ctx == null) {
         return;
       }
 
-      long threadId = Thread.currentThread().getId();
-      long timestamp = System.nanoTime();
-
-      ctx.getCollector().onMethodExit(threadId, timestamp);
+      ctx.getCollector().onMethodExit();
 
     } catch (Throwable t) {
       // Never throw from instrumentation
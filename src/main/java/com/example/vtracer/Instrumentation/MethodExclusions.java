@@ -0,0 +1,72 @@
+package com.example.vtracer.Instrumentation;
+
+import static net.bytebuddy.matcher.ElementMatchers.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.matcher.ElementMatcher;
+
+/**
+ * Methods removed from instrumentation at runtime
+ *
+ * <p>Consulted every time a class is transformed, so retransforming a class after adding one of
+ * its methods here strips that method's advice. Methods are keyed by class and name, like {@link
+ * com.example.vtracer.tracing.model.MethodRegistry} IDs, so all overloads go together.
+ */
+public class MethodExclusions {
+
+  private final Map<String, Set<String>> methodsByClass;
+  // Signature -> why it was excluded, for metrics
+  private final Map<String, String> reasons;
+
+  public MethodExclusions() {
+    this.methodsByClass = new ConcurrentHashMap<>();
+    this.reasons = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Exclude a method from now on
+   *
+   * @return false if it already was
+   */
+  public boolean exclude(String className, String methodName, String reason) {
+    boolean added =
+        methodsByClass
+            .computeIfAbsent(className, k -> ConcurrentHashMap.newKeySet())
+            .add(methodName);
+    if (added) {
+      reasons.put(className + "." + methodName, reason);
+    }
+    return added;
+  }
+
+  public boolean isExcluded(String className, String methodName) {
+    Set<String> methods = methodsByClass.get(className);
+    return methods != null && methods.contains(methodName);
+  }
+
+  /** Matcher for the excluded methods of one class */
+  public ElementMatcher.Junction<MethodDescription> matcherFor(String className) {
+    Set<String> methods = methodsByClass.get(className);
+    if (methods == null || methods.isEmpty()) {
+      return none();
+    }
+    return namedOneOf(methods.toArray(new String[0]));
+  }
+
+  public int size() {
+    return reasons.size();
+  }
+
+  /** Write the exclusion count and each decision to a metrics file */
+  public void writeMetrics(Writer w) throws IOException {
+    w.write("methodsDeinstrumented: " + reasons.size() + "\n");
+    for (Map.Entry<String, String> entry : reasons.entrySet()) {
+      w.write("deinstrumented " + entry.getKey() + ": " + entry.getValue() + "\n");
+    }
+  }
+}
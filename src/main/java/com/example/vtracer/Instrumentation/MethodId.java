@@ -0,0 +1,15 @@
+package com.example.vtracer.Instrumentation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds the instrumented method's registry ID to an advice parameter
+ *
+ * <p>The ID is resolved once when the class is transformed and inlined as a constant.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface MethodId {}
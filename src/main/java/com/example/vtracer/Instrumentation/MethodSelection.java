@@ -0,0 +1,90 @@
+package com.example.vtracer.Instrumentation;
+
+import static net.bytebuddy.matcher.ElementMatchers.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.matcher.ElementMatcher;
+
+/**
+ * Methods chosen for instrumentation at runtime (hybrid engine)
+ *
+ * <p>The opposite of {@link MethodExclusions}: only the methods listed here get advice, within the
+ * classes the config matches. The whole set is swapped at once, and the classes whose methods
+ * changed must be retransformed for the swap to take effect.
+ */
+public class MethodSelection {
+
+  // Replaced, never mutated, so transformers read it without a lock
+  private volatile Map<String, Set<String>> methodsByClass;
+
+  public MethodSelection() {
+    this.methodsByClass = Map.of();
+  }
+
+  public boolean containsClass(String className) {
+    return methodsByClass.containsKey(className);
+  }
+
+  /** Matcher for the selected methods of one class */
+  public ElementMatcher.Junction<MethodDescription> matcherFor(String className) {
+    Set<String> methods = methodsByClass.get(className);
+    if (methods == null || methods.isEmpty()) {
+      return none();
+    }
+    return namedOneOf(methods.toArray(new String[0]));
+  }
+
+  /**
+   * Select exactly these methods from now on
+   *
+   * @return classes gaining or losing a selected method
+   */
+  public synchronized Set<String> replace(Map<String, Set<String>> selected) {
+    Map<String, Set<String>> previous = methodsByClass;
+    Map<String, Set<String>> updated = new HashMap<>();
+    for (Map.Entry<String, Set<String>> entry : selected.entrySet()) {
+      updated.put(entry.getKey(), Set.copyOf(entry.getValue()));
+    }
+
+    Set<String> changed = new HashSet<>();
+    for (String className : previous.keySet()) {
+      if (!previous.get(className).equals(updated.get(className))) {
+        changed.add(className);
+      }
+    }
+    for (String className : updated.keySet()) {
+      if (!previous.containsKey(className)) {
+        changed.add(className);
+      }
+    }
+
+    methodsByClass = Map.copyOf(updated);
+    return changed;
+  }
+
+  /** Selected methods across all classes */
+  public int size() {
+    int size = 0;
+    for (Set<String> methods : methodsByClass.values()) {
+      size += methods.size();
+    }
+    return size;
+  }
+
+  /** Write the selected method count and each method to a metrics file */
+  public void writeMetrics(Writer w) throws IOException {
+    Map<String, Set<String>> current = methodsByClass;
+    w.write("methodsSelected: " + size() + "\n");
+    for (Map.Entry<String, Set<String>> entry : current.entrySet()) {
+      for (String methodName : entry.getValue()) {
+        w.write("selected " + entry.getKey() + "." + methodName + "\n");
+      }
+    }
+  }
+}
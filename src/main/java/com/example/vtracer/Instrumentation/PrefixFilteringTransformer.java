@@ -0,0 +1,64 @@
+package com.example.vtracer.Instrumentation;
+
+import com.example.vtracer.agent.AttachMetrics;
+import com.example.vtracer.config.VTracerConfig;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.IllegalClassFormatException;
+import java.security.ProtectionDomain;
+
+/**
+ * Turns away agent and JDK classes by their raw internal name before ByteBuddy sees them
+ *
+ * <p>Every class load passes through the transformer. Checking the name against a prefix trie
+ * first spares the delegate from building a type description for classes it would ignore anyway.
+ */
+final class PrefixFilteringTransformer implements ClassFileTransformer {
+
+  private final ClassFileTransformer delegate;
+  private final AttachMetrics metrics;
+
+  PrefixFilteringTransformer(ClassFileTransformer delegate, AttachMetrics metrics) {
+    this.delegate = delegate;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public byte[] transform(
+      ClassLoader loader,
+      String className,
+      Class<?> classBeingRedefined,
+      ProtectionDomain protectionDomain,
+      byte[] classfileBuffer)
+      throws IllegalClassFormatException {
+    if (rejects(className)) {
+      return null;
+    }
+    return delegate.transform(
+        loader, className, classBeingRedefined, protectionDomain, classfileBuffer);
+  }
+
+  @Override
+  public byte[] transform(
+      Module module,
+      ClassLoader loader,
+      String className,
+      Class<?> classBeingRedefined,
+      ProtectionDomain protectionDomain,
+      byte[] classfileBuffer)
+      throws IllegalClassFormatException {
+    if (rejects(className)) {
+      return null;
+    }
+    return delegate.transform(
+        module, loader, className, classBeingRedefined, protectionDomain, classfileBuffer);
+  }
+
+  private boolean rejects(String className) {
+    // Hidden classes have no name to match
+    if (className == null || VTracerConfig.isExcludedPackage(className)) {
+      metrics.prefixRejected();
+      return true;
+    }
+    return false;
+  }
+}
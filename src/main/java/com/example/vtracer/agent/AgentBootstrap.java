@@ -1,12 +1,18 @@
 package com.example.vtracer.agent;
 
 import com.example.vtracer.Instrumentation.InstrumentationSetup;
+import com.example.vtracer.config.VTracerConfig;
 import java.lang.instrument.Instrumentation;
 
 /** Bootstraps the instrumentation setup */
 public class AgentBootstrap {
 
   public static void initialize(VTracerAgent.VTracerContext context, Instrumentation inst) {
+    if (context.getConfig().getEngine() == VTracerConfig.Engine.SAMPLING) {
+      System.out.println("[VTracer] Sampling engine selected, no instrumentation installed");
+      return;
+    }
+
     System.out.println("[VTracer] Installing instrumentation...");
 
     InstrumentationSetup setup = new InstrumentationSetup();
@@ -0,0 +1,73 @@
+package com.example.vtracer.agent;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Durations of the attach phases, measured from agent entry
+ *
+ * <p>The transformer is registered before loaded classes are retransformed, so code loaded after
+ * {@code transformerReady} is traced while the bulk retransformation is still running.
+ */
+public class AttachMetrics {
+
+  private final long startNanos;
+  private volatile long configNanos;
+  private volatile long contextNanos;
+  private volatile long transformerNanos;
+  private volatile long retransformNanos;
+  private volatile int retransformCandidates;
+  private volatile int retransformedClasses;
+  // Class loads turned away by the raw-name prefix check, before any type description work
+  private final LongAdder prefixRejected;
+
+  public AttachMetrics() {
+    this.startNanos = System.nanoTime();
+    this.prefixRejected = new LongAdder();
+  }
+
+  public void configParsed() {
+    configNanos = System.nanoTime() - startNanos;
+  }
+
+  public void contextCreated() {
+    contextNanos = System.nanoTime() - startNanos;
+  }
+
+  public void transformerReady() {
+    transformerNanos = System.nanoTime() - startNanos;
+  }
+
+  public void retransformed(int candidates, int retransformed) {
+    retransformNanos = System.nanoTime() - startNanos;
+    retransformCandidates = candidates;
+    retransformedClasses = retransformed;
+  }
+
+  public void prefixRejected() {
+    prefixRejected.increment();
+  }
+
+  /** One-line summary for the attach log */
+  public String summary() {
+    return String.format(
+        "config %dms, context %dms, transformer ready %dms, %d/%d loaded classes retransformed"
+            + " by %dms",
+        configNanos / 1_000_000,
+        contextNanos / 1_000_000,
+        transformerNanos / 1_000_000,
+        retransformedClasses,
+        retransformCandidates,
+        retransformNanos / 1_000_000);
+  }
+
+  public void writeMetrics(Writer w) throws IOException {
+    w.write("attachConfigMs: " + configNanos / 1_000_000 + "\n");
+    w.write("attachContextMs: " + contextNanos / 1_000_000 + "\n");
+    w.write("attachTransformerReadyMs: " + transformerNanos / 1_000_000 + "\n");
+    w.write("attachRetransformDoneMs: " + retransformNanos / 1_000_000 + "\n");
+    w.write("attachRetransformedClasses: " + retransformedClasses + "\n");
+    w.write("classLoadsRejectedByPrefix: " + prefixRejected.sum() + "\n");
+  }
+}
@@ -8,6 +8,9 @@ import java.util.List;
  * Dynamic attach tool for attaching VTracer to running JVMs
  *
  * <p>Usage: java -cp vtracer.jar com.example.vtracer.agent.AttachTool <pid> [options]
+ *
+ * <p>Attaching again with {@code command=reinstrument,classInclude=...} changes the patterns of the
+ * agent already loaded in that JVM instead of starting a second one.
  */
 public class AttachTool {
 
@@ -17,6 +20,10 @@ public class AttachTool {
           "Usage: java -cp vtracer.jar com.example.vtracer.agent.AttachTool <pid|list> [options]");
       System.out.println("  list  - List all running JVMs");
       System.out.println("  <pid> - Attach to specific JVM process");
+      System.out.println(
+          "  <pid> command=reinstrument,classInclude=<regex>,classExclude=<regex>,"
+              + "methodInclude=<regex>");
+      System.out.println("        - Change what a loaded agent instruments (empty value clears)");
       System.exit(1);
     }
 
@@ -1,18 +1,43 @@
 package com.example.vtracer.agent;
 
+import com.example.vtracer.Instrumentation.ClassRetransformer;
+import com.example.vtracer.Instrumentation.MethodExclusions;
+import com.example.vtracer.Instrumentation.MethodSelection;
 import com.example.vtracer.analysis.calltree.CallTreeAnalyzer;
 import com.example.vtracer.analysis.calltree.SelfTimeCalculator;
+import com.example.vtracer.analysis.flamegraph.builder.FlameGraphBuilder;
+import com.example.vtracer.analysis.flamegraph.model.FlameGraph;
+import com.example.vtracer.analysis.flamegraph.model.FlameNode;
+import com.example.vtracer.analysis.hotspot.HotMethodDetector;
+import com.example.vtracer.analysis.hotspot.HotPathSelector;
+import com.example.vtracer.analysis.profile.ProfileStore;
 import com.example.vtracer.config.VTracerConfig;
 import com.example.vtracer.reporting.FlameGraphReporter;
 import com.example.vtracer.reporting.JsonReporter;
 import com.example.vtracer.reporting.Reporter;
 import com.example.vtracer.tracing.collector.CallTreeCollector;
+import com.example.vtracer.tracing.jfr.JfrRecorder;
+import com.example.vtracer.tracing.model.MethodRegistry;
+import com.example.vtracer.tracing.pinning.PinningMonitor;
 import com.example.vtracer.tracing.sampling.AdaptiveSampler;
+import com.example.vtracer.tracing.stack.StackSampler;
+import java.io.BufferedWriter;
+import java.io.IOException;
 import java.lang.instrument.Instrumentation;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import net.bytebuddy.pool.TypePool;
 
 /**
  * VTracer Java Agent Entry Point
@@ -37,22 +62,32 @@ public class VTracerAgent {
   }
 
   private static synchronized void initialize(String agentArgs, Instrumentation inst) {
+    String command = VTracerConfig.parseCommand(agentArgs);
+    if (command != null) {
+      runCommand(command, agentArgs);
+      return;
+    }
+
     if (context != null) {
       System.err.println("[VTracer] Already initialized, skipping");
       return;
     }
 
     try {
+      AttachMetrics attachMetrics = new AttachMetrics();
       VTracerConfig config = VTracerConfig.parse(agentArgs);
+      attachMetrics.configParsed();
 
       if (!config.isEnabled()) {
         System.out.println("[VTracer] Disabled via config, exiting");
         return;
       }
 
-      context = VTracerContext.create(config);
+      context = VTracerContext.create(config, inst, attachMetrics);
+      attachMetrics.contextCreated();
 
       AgentBootstrap.initialize(context, inst);
+      System.out.println("[VTracer] Attach phases: " + attachMetrics.summary());
 
       // Register shutdown hook
       Runtime.getRuntime()
@@ -74,6 +109,26 @@ public class VTracerAgent {
     }
   }
 
+  /** Control command sent by a later attach to the loaded agent */
+  private static void runCommand(String command, String agentArgs) {
+    if (context == null) {
+      System.err.println("[VTracer] Not initialized, ignoring command: " + command);
+      return;
+    }
+
+    try {
+      switch (command) {
+        case "reinstrument":
+          context.reinstrument(agentArgs);
+          break;
+        default:
+          System.err.println("[VTracer] Unknown command: " + command);
+      }
+    } catch (Exception e) {
+      System.err.println("[VTracer] Command " + command + " failed: " + e.getMessage());
+    }
+  }
+
   /** Get the singleton context - called from instrumentation advice */
   public static VTracerContext getContext() {
     return context;
@@ -87,50 +142,145 @@ public class VTracerAgent {
    */
   public static class VTracerContext {
 
-    private final VTracerConfig config;
+    // Fewer stack samples than this in a window is too little evidence to re-select hot paths
+    private static final long MIN_HOT_PATH_SAMPLES = 100;
+
+    // Replaced by a reinstrument command; components keep the values they were built with
+    private volatile VTracerConfig config;
+    private final MethodRegistry methodRegistry;
     private final CallTreeCollector collector;
     private final AdaptiveSampler sampler;
     private final CallTreeAnalyzer analyzer;
-    private final SelfTimeCalculator selfTimeCalculator;
     private final Reporter reporter;
+    private final MethodExclusions exclusions;
+    private final ClassRetransformer retransformer;
+    private final HotMethodDetector hotMethodDetector;
+    // Null unless the hybrid engine picks the instrumented methods
+    private final MethodSelection methodSelection;
+    private final HotPathSelector hotPathSelector;
+    private final AttachMetrics attachMetrics;
+    // Null when pinning detection is off
+    private final PinningMonitor pinningMonitor;
+    // Null unless spans are recorded to JFR
+    private final JfrRecorder jfrRecorder;
+    // Null when only instrumentation collects
+    private final StackSampler stackSampler;
+    // Null when no profile windows are configured, or spans go to JFR
+    private final ProfileStore profileStore;
+    // Parsed type descriptions per class loader, dropped periodically so loaders can unload
+    private final ConcurrentMap<ClassLoader, TypePool.CacheProvider> typePoolCache;
     private final ScheduledExecutorService scheduler;
+    // Null when analysis stays on the flush thread
+    private final ForkJoinPool analysisPool;
     private final AtomicBoolean running;
+    private final VTracerControl control;
+    // Serializes pattern swaps; their retransform must not hold the flush monitor
+    private final Object reinstrumentLock = new Object();
+
+    // Step durations of the most recent flush
+    private volatile long lastDrainNanos;
+    private volatile long lastAnalysisNanos;
+    private volatile long lastReportNanos;
 
     private VTracerContext(
         VTracerConfig config,
+        MethodRegistry methodRegistry,
         CallTreeCollector collector,
         AdaptiveSampler sampler,
         CallTreeAnalyzer analyzer,
-        SelfTimeCalculator selfTimeCalculator,
         Reporter reporter,
-        ScheduledExecutorService scheduler) {
+        MethodExclusions exclusions,
+        ClassRetransformer retransformer,
+        AttachMetrics attachMetrics,
+        PinningMonitor pinningMonitor,
+        JfrRecorder jfrRecorder,
+        StackSampler stackSampler,
+        ScheduledExecutorService scheduler,
+        ForkJoinPool analysisPool) {
       this.config = config;
+      this.methodRegistry = methodRegistry;
       this.collector = collector;
       this.sampler = sampler;
       this.analyzer = analyzer;
-      this.selfTimeCalculator = selfTimeCalculator;
       this.reporter = reporter;
+      this.exclusions = exclusions;
+      this.retransformer = retransformer;
+      this.hotMethodDetector =
+          new HotMethodDetector(
+              config.getDeinstrumentMinCallRate(), config.getDeinstrumentMaxNanos());
+      this.methodSelection =
+          config.getEngine() == VTracerConfig.Engine.HYBRID ? new MethodSelection() : null;
+      this.hotPathSelector = new HotPathSelector(config.getHybridTopMethods());
+      this.attachMetrics = attachMetrics;
+      this.pinningMonitor = pinningMonitor;
+      this.jfrRecorder = jfrRecorder;
+      this.stackSampler = stackSampler;
+      this.profileStore =
+          config.getProfileWindows().isEmpty() || jfrRecorder != null
+              ? null
+              : new ProfileStore(
+                  config.getProfileWindows(), config.getProfileSliceNodes(), System.nanoTime());
+      this.typePoolCache = new ConcurrentHashMap<>();
       this.scheduler = scheduler;
+      this.analysisPool = analysisPool;
       this.running = new AtomicBoolean(true);
+      this.control = new VTracerControl(this);
     }
 
-    public static VTracerContext create(VTracerConfig config) {
-      CallTreeCollector collector = new CallTreeCollector(config.getBufferSize());
+    public static VTracerContext create(
+        VTracerConfig config, Instrumentation inst, AttachMetrics attachMetrics)
+        throws IOException {
+      MethodRegistry methodRegistry = new MethodRegistry();
       AdaptiveSampler sampler =
           new AdaptiveSampler(config.getInitialSampleRate(), config.getTargetOverhead());
-      CallTreeAnalyzer analyzer = new CallTreeAnalyzer();
-      SelfTimeCalculator selfTimeCalculator = new SelfTimeCalculator();
+      CallTreeCollector collector = new CallTreeCollector(config, sampler);
+      ForkJoinPool analysisPool = createAnalysisPool(config.getAnalysisParallelism());
+      CallTreeAnalyzer analyzer = new CallTreeAnalyzer(analysisPool);
+      PinningMonitor pinningMonitor =
+          config.isPinningDetection()
+              ? new PinningMonitor(
+                  methodRegistry, config.getPinningThresholdNanos(), config.getPinningMaxSites())
+              : null;
+      // Package thresholds are a collector filter; JFR gets the global minimum only. Nothing is
+      // instrumented under the sampling engine, so there are no spans to record.
+      JfrRecorder jfrRecorder =
+          config.getCollectorMode() == VTracerConfig.CollectorMode.JFR
+                  && config.getEngine() != VTracerConfig.Engine.SAMPLING
+              ? new JfrRecorder(
+                  methodRegistry,
+                  config.getJfrFile(),
+                  config.getMinDurationNanos(),
+                  config.getJfrMaxSizeBytes(),
+                  config.getJfrMaxAgeNanos())
+              : null;
+      // Hybrid samples only pick hot paths, so their frames stay out of the agent's registry
+      StackSampler stackSampler =
+          config.getEngine() != VTracerConfig.Engine.INSTRUMENTATION
+              ? new StackSampler(
+                  config.getSamplingIntervalNanos(),
+                  config.getEngine() == VTracerConfig.Engine.SAMPLING
+                      ? methodRegistry
+                      : new MethodRegistry())
+              : null;
 
       Reporter reporter;
       switch (config.getOutputFormat()) {
         case FOLDED:
-          reporter = new FlameGraphReporter(config.getOutputDir());
+          reporter =
+              new FlameGraphReporter(config.getOutputDir(), methodRegistry, false, analysisPool);
           break;
         case JSON:
-          reporter = new JsonReporter(config.getOutputDir());
+          reporter =
+              new JsonReporter(
+                  config.getOutputDir(),
+                  methodRegistry,
+                  collector.getLatencies(),
+                  pinningMonitor != null ? pinningMonitor.getStats() : null,
+                  new SelfTimeCalculator(analysisPool));
           break;
         default:
-          reporter = new FlameGraphReporter(config.getOutputDir());
+          reporter =
+              new FlameGraphReporter(config.getOutputDir(), methodRegistry, false, analysisPool);
       }
 
       ScheduledExecutorService scheduler =
@@ -144,24 +294,80 @@ public class VTracerAgent {
 
       VTracerContext ctx =
           new VTracerContext(
-              config, collector, sampler, analyzer, selfTimeCalculator, reporter, scheduler);
-
+              config,
+              methodRegistry,
+              collector,
+              sampler,
+              analyzer,
+              reporter,
+              new MethodExclusions(),
+              new ClassRetransformer(
+                  inst, config.getRetransformBatchSize(), config.getRetransformPauseNanos()),
+              attachMetrics,
+              pinningMonitor,
+              jfrRecorder,
+              stackSampler,
+              scheduler,
+              analysisPool);
+
+      if (jfrRecorder != null) {
+        jfrRecorder.start();
+      }
       ctx.startBackgroundJobs();
+      if (stackSampler != null) {
+        stackSampler.start();
+      }
+      if (pinningMonitor != null) {
+        pinningMonitor.start();
+      }
+      ctx.control.register();
 
       return ctx;
     }
 
+    /** Dedicated workers, so analysis never competes for the application's common pool */
+    private static ForkJoinPool createAnalysisPool(int parallelism) {
+      if (parallelism <= 1) {
+        return null;
+      }
+      return new ForkJoinPool(
+          parallelism,
+          pool -> {
+            ForkJoinWorkerThread t =
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName("vtracer-analysis-" + t.getPoolIndex());
+            t.setDaemon(true);
+            return t;
+          },
+          null,
+          false);
+    }
+
     private void startBackgroundJobs() {
+      if (config.getEngine() != VTracerConfig.Engine.SAMPLING) {
+        startInstrumentationJobs();
+      }
+
+      // Instrument what the sampler found hot, after a warm-up and then periodically
+      if (methodSelection != null) {
+        scheduler.scheduleAtFixedRate(
+            () -> {
+              try {
+                selectHotPaths();
+              } catch (Exception e) {
+                System.err.println("[VTracer] Error in hot-path selection: " + e.getMessage());
+              }
+            },
+            config.getHybridWarmupNanos(),
+            config.getHybridIntervalNanos(),
+            TimeUnit.NANOSECONDS);
+      }
+
       // Periodic flush: drain events, build tree, report
       scheduler.scheduleAtFixedRate(
           () -> {
             try {
-              var events = collector.drain();
-              if (!events.isEmpty()) {
-                var tree = analyzer.buildTree(events);
-                selfTimeCalculator.calculate(tree);
-                reporter.reportAsync(tree);
-              }
+              flush(false);
             } catch (Exception e) {
               System.err.println("[VTracer] Error in flush job: " + e.getMessage());
             }
@@ -170,37 +376,303 @@ public class VTracerAgent {
           config.getReportIntervalSeconds(),
           TimeUnit.SECONDS);
 
-      // Adaptive sampling adjustment
+      // Metrics export
       scheduler.scheduleAtFixedRate(
           () -> {
             try {
-              double overhead = collector.getOverheadPercent();
-              sampler.adjust(overhead);
+              exportMetrics(config.getOutputDir().resolve("metrics.txt"));
             } catch (Exception e) {
-              System.err.println("[VTracer] Error in sampling adjustment: " + e.getMessage());
+              System.err.println("[VTracer] Error exporting metrics: " + e.getMessage());
             }
           },
-          5,
-          5,
+          10,
+          10,
           TimeUnit.SECONDS);
+    }
 
-      // Metrics export
+    /** Jobs that tune the advice - none apply when stacks are sampled */
+    private void startInstrumentationJobs() {
+      // Measure real per-call cost before the first sampling adjustment
+      scheduler.execute(
+          () -> {
+            try {
+              collector.calibrate(
+                  () -> {
+                    VTracerContext ctx = getContext();
+                    return ctx != null && ctx.isRunning();
+                  });
+              var estimator = collector.getOverheadEstimator();
+              System.out.printf(
+                  "[VTracer] Calibrated overhead: %.1fns per traced call, %.1fns per skipped call%n",
+                  estimator.getTracedCallNanos(), estimator.getSkippedCallNanos());
+            } catch (Exception e) {
+              System.err.println("[VTracer] Overhead calibration failed: " + e.getMessage());
+            }
+          });
+
+      // Adaptive sampling adjustment
       scheduler.scheduleAtFixedRate(
           () -> {
             try {
-              collector.exportMetrics(config.getOutputDir().resolve("metrics.txt"));
+              // Overhead over the last interval only; skip idle intervals
+              double overhead = collector.measureOverhead();
+              if (!Double.isNaN(overhead)) {
+                sampler.adjust(overhead);
+              }
             } catch (Exception e) {
-              System.err.println("[VTracer] Error exporting metrics: " + e.getMessage());
+              System.err.println("[VTracer] Error in sampling adjustment: " + e.getMessage());
             }
           },
-          10,
-          10,
+          5,
+          5,
           TimeUnit.SECONDS);
+
+      // Strip advice from hot, trivial methods
+      if (config.isDeinstrumentEnabled()) {
+        scheduler.scheduleAtFixedRate(
+            () -> {
+              try {
+                deinstrumentHotMethods();
+              } catch (Exception e) {
+                System.err.println("[VTracer] Error in de-instrumentation: " + e.getMessage());
+              }
+            },
+            10,
+            10,
+            TimeUnit.SECONDS);
+      }
+
+      // Only the bulk install reuses most descriptions; later loads are one class at a time
+      scheduler.scheduleAtFixedRate(typePoolCache::clear, 60, 60, TimeUnit.SECONDS);
+    }
+
+    /** Exclude methods the detector found hot and trivial, then retransform their classes */
+    private void deinstrumentHotMethods() {
+      List<HotMethodDetector.HotMethod> hot =
+          hotMethodDetector.detect(collector.getLatencies(), sampler.getSampleRate());
+
+      Set<String> classNames = new HashSet<>();
+      for (HotMethodDetector.HotMethod method : hot) {
+        int methodId = method.getMethodId();
+        String className = methodRegistry.getClassName(methodId);
+        String reason =
+            String.format(
+                "%.0f calls/s, p90 %dns", method.getCallsPerSecond(), method.getP90Nanos());
+        if (exclusions.exclude(className, methodRegistry.getMethodName(methodId), reason)) {
+          String signature = methodRegistry.getSignature(methodId);
+          System.out.println("[VTracer] De-instrumenting " + signature + ": " + reason);
+          classNames.add(className);
+        }
+      }
+
+      if (!classNames.isEmpty()) {
+        long start = System.nanoTime();
+        int count = retransformer.retransform(classNames);
+        System.out.printf(
+            "[VTracer] Retransformed %d classes in %dms%n",
+            count, (System.nanoTime() - start) / 1_000_000);
+      }
+    }
+
+    /** Swap the instrumented methods for the hot paths sampled since the previous selection */
+    private void selectHotPaths() {
+      FlameNode profile = stackSampler.drainProfile();
+      long totalNanos = profile.getTotalTime();
+      long samples = totalNanos / stackSampler.getIntervalNanos();
+      if (samples < MIN_HOT_PATH_SAMPLES) {
+        System.out.println(
+            "[VTracer] Only " + samples + " stack samples, keeping the instrumented methods");
+        return;
+      }
+
+      HotPathSelector.Selection selection =
+          hotPathSelector.select(profile, stackSampler.getRegistry(), config::matchesClass);
+      Set<String> classNames = methodSelection.replace(selection.getMethodsByClass());
+      if (classNames.isEmpty()) {
+        return;
+      }
+
+      StringBuilder top = new StringBuilder();
+      for (HotPathSelector.HotFrame frame : selection.getRanked()) {
+        if (top.length() > 0) {
+          top.append(", ");
+        }
+        top.append(frame.getSignature())
+            .append(String.format(" (%.0f%%)", 100.0 * frame.getInclusiveNanos() / totalNanos));
+      }
+      System.out.printf(
+          "[VTracer] Hot paths from %d samples: %d methods selected, top %s%n",
+          samples, methodSelection.size(), top);
+
+      long start = System.nanoTime();
+      int count = retransformer.retransform(classNames);
+      System.out.printf(
+          "[VTracer] Retransformed %d classes in %dms%n",
+          count, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void exportMetrics(Path metricsFile) throws IOException {
+      Files.createDirectories(metricsFile.getParent());
+      try (BufferedWriter w = Files.newBufferedWriter(metricsFile)) {
+        collector.writeMetrics(w, methodRegistry);
+        exclusions.writeMetrics(w);
+        attachMetrics.writeMetrics(w);
+        if (methodSelection != null) {
+          methodSelection.writeMetrics(w);
+        }
+        if (stackSampler != null) {
+          w.write("stackSamples: " + stackSampler.getTotalSamples() + "\n");
+        }
+        if (profileStore != null) {
+          profileStore.writeMetrics(w);
+        }
+        if (pinningMonitor != null) {
+          w.write("pinningEvents: " + pinningMonitor.getStats().getTotalCount() + "\n");
+          w.write("pinningSites: " + pinningMonitor.getStats().snapshot().size() + "\n");
+        }
+      }
+    }
+
+    /**
+     * Swap the instrumentation patterns and retransform only the classes whose match changed
+     *
+     * <p>A changed method pattern affects every class matched before or after. Flushes and
+     * snapshots keep running during the retransform, which is throttled and can take seconds.
+     */
+    public void reinstrument(String agentArgs) {
+      synchronized (reinstrumentLock) {
+        VTracerConfig previous = config;
+        VTracerConfig updated = previous.withPatterns(agentArgs);
+        boolean methodsChanged =
+            !previous
+                .getMethodIncludePattern()
+                .pattern()
+                .equals(updated.getMethodIncludePattern().pattern());
+
+        List<Class<?>> changed =
+            retransformer.loadedClasses(
+                name -> {
+                  boolean before = previous.matchesClass(name);
+                  boolean after = updated.matchesClass(name);
+                  return before != after || (methodsChanged && after);
+                });
+
+        config = updated;
+
+        long start = System.nanoTime();
+        int count = retransformer.retransform(changed);
+        System.out.printf(
+            "[VTracer] Reinstrumented: %d of %d changed classes retransformed in %dms%n",
+            count, changed.size(), (System.nanoTime() - start) / 1_000_000);
+      }
+    }
+
+    /** Flush and report now, blocking until written */
+    public void snapshot() {
+      flush(true);
+    }
+
+    /** Report one rolling profile window, as of the last flush, blocking until written */
+    public void exportProfileWindow(String window) {
+      if (profileStore == null) {
+        System.err.println("[VTracer] No profile windows configured");
+        return;
+      }
+      FlameNode profile = profileStore.window(window, System.nanoTime());
+      if (profile == null) {
+        System.err.println(
+            "[VTracer] Unknown profile window "
+                + window
+                + ", configured: "
+                + profileStore.getWindowNames());
+        return;
+      }
+      reporter.reportSync(profile, "profile-window-" + window);
+      System.out.println("[VTracer] Exported the " + window + " profile window");
+    }
+
+    /**
+     * Drain what was collected since the last flush and report it
+     *
+     * <p>Synchronized because the drain is single-consumer and a snapshot can race the job.
+     */
+    private synchronized void flush(boolean sync) {
+      if (jfrRecorder != null) {
+        // Nothing to drain - the recording is analyzed once at shutdown
+        return;
+      }
+
+      long start = System.nanoTime();
+
+      // Already aggregated per call path - no tree to build
+      if (config.getEngine() == VTracerConfig.Engine.SAMPLING) {
+        reportProfile(stackSampler.drainProfile(), start, sync);
+        return;
+      }
+      if (config.getCollectorMode() == VTracerConfig.CollectorMode.AGGREGATE) {
+        reportProfile(collector.drainProfile(), start, sync);
+        return;
+      }
+
+      var events = collector.drain();
+      long drained = System.nanoTime();
+      lastDrainNanos = drained - start;
+      // The final flush also reports what the analyzer still carries
+      boolean last = !running.get();
+      if (events.isEmpty() && !last) {
+        lastAnalysisNanos = 0;
+        lastReportNanos = 0;
+        return;
+      }
+      var tree = last ? analyzer.buildFinalTree(events) : analyzer.buildTree(events);
+      if (tree.getRoots().isEmpty()) {
+        lastAnalysisNanos = System.nanoTime() - drained;
+        lastReportNanos = 0;
+        return;
+      }
+      // Folded once, for the store and the reporter
+      FlameGraph flameGraph = null;
+      if (profileStore != null) {
+        flameGraph = FlameGraphBuilder.build(tree, methodRegistry, analysisPool);
+        profileStore.add(flameGraph.getRoot(), System.nanoTime());
+      }
+      long reportStart = System.nanoTime();
+      lastAnalysisNanos = reportStart - drained;
+      if (sync) {
+        reporter.reportSync(tree, flameGraph);
+        lastReportNanos = System.nanoTime() - reportStart;
+      } else {
+        reporter
+            .reportAsync(tree, flameGraph)
+            .whenComplete((v, e) -> lastReportNanos = System.nanoTime() - reportStart);
+      }
+    }
+
+    private void reportProfile(FlameNode profile, long start, boolean sync) {
+      lastDrainNanos = System.nanoTime() - start;
+      lastAnalysisNanos = 0;
+      if (profile.getChildren().isEmpty()) {
+        lastReportNanos = 0;
+        return;
+      }
+      if (profileStore != null) {
+        profileStore.add(profile, System.nanoTime());
+      }
+      long reportStart = System.nanoTime();
+      if (sync) {
+        reporter.reportSync(profile);
+        lastReportNanos = System.nanoTime() - reportStart;
+      } else {
+        reporter
+            .reportAsync(profile)
+            .whenComplete((v, e) -> lastReportNanos = System.nanoTime() - reportStart);
+      }
     }
 
     public void shutdown(long timeout, TimeUnit unit) {
       System.out.println("[VTracer] Shutting down...");
       running.set(false);
+      control.unregister();
 
       // Stop background jobs
       scheduler.shutdown();
@@ -213,29 +685,72 @@ public class VTracerAgent {
         Thread.currentThread().interrupt();
       }
 
+      if (pinningMonitor != null) {
+        pinningMonitor.stop();
+      }
+      if (stackSampler != null) {
+        stackSampler.stop();
+      }
+
       // Final flush
       try {
-        var events = collector.drain();
-        if (!events.isEmpty()) {
-          var tree = analyzer.buildTree(events);
-          selfTimeCalculator.calculate(tree);
-          reporter.reportSync(tree);
-        }
+        flush(true);
       } catch (Exception e) {
         System.err.println("[VTracer] Error in final flush: " + e.getMessage());
       }
 
+      if (jfrRecorder != null) {
+        reportRecording();
+      }
+
+      if (analysisPool != null) {
+        analysisPool.shutdown();
+      }
+
       // Cleanup thread-locals
       collector.cleanup();
 
       System.out.println("[VTracer] Shutdown complete");
     }
 
+    /**
+     * Stop the JFR recording and report the profile rebuilt from it
+     *
+     * <p>The file is analyzed batch by batch and each call tree folded into one profile, so only a
+     * batch of spans and the profile are in memory at a time.
+     */
+    private void reportRecording() {
+      try {
+        Path recordingFile = jfrRecorder.stop();
+        if (recordingFile == null) {
+          return;
+        }
+        long start = System.nanoTime();
+        FlameNode profile = FlameNode.root();
+        analyzer.buildTrees(
+            recordingFile,
+            methodRegistry,
+            tree -> {
+              FlameGraph graph = FlameGraphBuilder.build(tree, methodRegistry, analysisPool);
+              profile.merge(graph.getRoot());
+            });
+        lastAnalysisNanos = System.nanoTime() - start;
+        reporter.reportSync(profile);
+        System.out.println("[VTracer] Recording analyzed: " + recordingFile);
+      } catch (Exception e) {
+        System.err.println("[VTracer] Error analyzing recording: " + e.getMessage());
+      }
+    }
+
     // Getters
     public VTracerConfig getConfig() {
       return config;
     }
 
+    public MethodRegistry getMethodRegistry() {
+      return methodRegistry;
+    }
+
     public CallTreeCollector getCollector() {
       return collector;
     }
@@ -244,6 +759,44 @@ public class VTracerAgent {
       return sampler;
     }
 
+    public MethodExclusions getExclusions() {
+      return exclusions;
+    }
+
+    /** Rolling profile windows, or null when none are kept */
+    public ProfileStore getProfileStore() {
+      return profileStore;
+    }
+
+    /** Methods the hybrid engine selected, or null when the config's patterns decide alone */
+    public MethodSelection getMethodSelection() {
+      return methodSelection;
+    }
+
+    public ClassRetransformer getRetransformer() {
+      return retransformer;
+    }
+
+    public AttachMetrics getAttachMetrics() {
+      return attachMetrics;
+    }
+
+    public ConcurrentMap<ClassLoader, TypePool.CacheProvider> getTypePoolCache() {
+      return typePoolCache;
+    }
+
+    public long getLastDrainNanos() {
+      return lastDrainNanos;
+    }
+
+    public long getLastAnalysisNanos() {
+      return lastAnalysisNanos;
+    }
+
+    public long getLastReportNanos() {
+      return lastReportNanos;
+    }
+
     public boolean isRunning() {
       return running.get();
     }
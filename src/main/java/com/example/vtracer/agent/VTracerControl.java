@@ -0,0 +1,171 @@
+package com.example.vtracer.agent;
+
+import com.example.vtracer.analysis.profile.ProfileStore;
+import com.example.vtracer.tracing.collector.CallTreeCollector;
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/** Exposes a {@link VTracerAgent.VTracerContext} over the platform MBean server */
+public class VTracerControl implements VTracerControlMBean {
+
+  public static final String OBJECT_NAME = "com.example.vtracer:type=VTracer";
+
+  private final VTracerAgent.VTracerContext context;
+  private final CallTreeCollector collector;
+
+  VTracerControl(VTracerAgent.VTracerContext context) {
+    this.context = context;
+    this.collector = context.getCollector();
+  }
+
+  /** Register with the platform MBean server - failure is logged, tracing goes on without JMX */
+  void register() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+      server.registerMBean(this, name);
+      System.out.println("[VTracer] JMX control registered as " + OBJECT_NAME);
+    } catch (JMException e) {
+      System.err.println("[VTracer] Failed to register JMX control: " + e.getMessage());
+    }
+  }
+
+  void unregister() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+    } catch (JMException e) {
+      System.err.println("[VTracer] Failed to unregister JMX control: " + e.getMessage());
+    }
+  }
+
+  @Override
+  public long getMethodEnters() {
+    return collector.getMethodEnters();
+  }
+
+  @Override
+  public long getMethodExits() {
+    return collector.getMethodExits();
+  }
+
+  @Override
+  public long getTracesSampled() {
+    return collector.getSampledTraces();
+  }
+
+  @Override
+  public long getTracesSkipped() {
+    return collector.getSkippedTraces();
+  }
+
+  @Override
+  public long getEventsSampled() {
+    return collector.getSampledEvents();
+  }
+
+  @Override
+  public long getEventsDropped() {
+    return collector.getDroppedEvents();
+  }
+
+  @Override
+  public long getEventsSpilled() {
+    return collector.getSpilledEvents();
+  }
+
+  @Override
+  public long getCallsBelowMinDuration() {
+    return collector.getFilteredCalls();
+  }
+
+  @Override
+  public int getMethodsDeinstrumented() {
+    return context.getExclusions().size();
+  }
+
+  @Override
+  public double getSampleRate() {
+    return context.getSampler().getSampleRate();
+  }
+
+  @Override
+  public void setSampleRate(double rate) {
+    context.getSampler().setSampleRate(rate);
+    System.out.printf("[VTracer] Sample rate set to %.2f%% via JMX%n", rate * 100);
+  }
+
+  @Override
+  public double getBufferUtilization() {
+    return collector.getBufferUtilization();
+  }
+
+  @Override
+  public double getOverheadPercent() {
+    return collector.getOverheadPercent() * 100;
+  }
+
+  @Override
+  public long getLastDrainNanos() {
+    return context.getLastDrainNanos();
+  }
+
+  @Override
+  public long getLastAnalysisNanos() {
+    return context.getLastAnalysisNanos();
+  }
+
+  @Override
+  public long getLastReportNanos() {
+    return context.getLastReportNanos();
+  }
+
+  @Override
+  public boolean isPaused() {
+    return collector.isPaused();
+  }
+
+  @Override
+  public void pause() {
+    collector.setPaused(true);
+    System.out.println("[VTracer] Paused via JMX");
+  }
+
+  @Override
+  public void resume() {
+    collector.setPaused(false);
+    System.out.println("[VTracer] Resumed via JMX");
+  }
+
+  @Override
+  public void snapshot() {
+    context.snapshot();
+  }
+
+  @Override
+  public String[] getProfileWindows() {
+    ProfileStore profileStore = context.getProfileStore();
+    return profileStore != null
+        ? profileStore.getWindowNames().toArray(new String[0])
+        : new String[0];
+  }
+
+  @Override
+  public void exportProfileWindow(String window) {
+    context.exportProfileWindow(window);
+  }
+
+  @Override
+  public void resetStats() {
+    collector.resetStats();
+    System.out.println("[VTracer] Statistics reset via JMX");
+  }
+}
@@ -0,0 +1,62 @@
+package com.example.vtracer.agent;
+
+/**
+ * JMX view of the running agent, registered as {@value VTracerControl#OBJECT_NAME}
+ *
+ * <p>Counters run since startup or the last {@link #resetStats()}. Step durations are those of the
+ * most recent flush.
+ */
+public interface VTracerControlMBean {
+
+  long getMethodEnters();
+
+  long getMethodExits();
+
+  long getTracesSampled();
+
+  long getTracesSkipped();
+
+  long getEventsSampled();
+
+  long getEventsDropped();
+
+  long getEventsSpilled();
+
+  long getCallsBelowMinDuration();
+
+  int getMethodsDeinstrumented();
+
+  double getSampleRate();
+
+  /** Override the adaptive sample rate (0.0 to 1.0); adjustment continues from it */
+  void setSampleRate(double rate);
+
+  double getBufferUtilization();
+
+  double getOverheadPercent();
+
+  long getLastDrainNanos();
+
+  long getLastAnalysisNanos();
+
+  long getLastReportNanos();
+
+  boolean isPaused();
+
+  /** Stop sampling new traces; traces in flight complete */
+  void pause();
+
+  void resume();
+
+  /** Flush and report now, blocking until written */
+  void snapshot();
+
+  /** Names of the rolling profile windows, empty when none are kept */
+  String[] getProfileWindows();
+
+  /** Report one rolling profile window (e.g. "5m") as of the last flush, blocking until written */
+  void exportProfileWindow(String window);
+
+  /** Zero counters and latency histograms */
+  void resetStats();
+}
@@ -1,87 +1,447 @@
 package com.example.vtracer.analysis.calltree;
 
+import com.example.vtracer.tracing.model.EventBatch;
+import com.example.vtracer.tracing.model.MethodRegistry;
 import com.example.vtracer.tracing.model.TraceEvent;
+import com.example.vtracer.util.ParallelWork;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * Builds call trees from trace events
  *
  * <p>Handles: - Multi-threaded traces (separate trees per thread) - Unmatched exits (exception
- * unwinding) - Recursion detection
+ * unwinding) - Recursion detection - Events lost to a full buffer: an EXIT closes the nearest open
+ * frame of its method and thread, popping the frames above it; one matching nothing clears the
+ * stack, as does a drain that reports lost records
+ *
+ * <p>Events are read straight from the drained {@link EventBatch} records; only tree nodes are
+ * allocated.
+ *
+ * <p>Batches of SPAN records are rebuilt without any ENTER/EXIT matching: spans arrive in exit
+ * order, so every span adopts the finished spans one level below it that recorded it (same method
+ * and thread) as their parent. Spans whose parent was dropped are reported as roots and counted.
+ *
+ * <p>Successive batches are one stream. Frames still open when a batch ends are carried into the
+ * next: each batch reports an open frame as a node covering its time since the previous batch, up
+ * to the source's last event, so a long call adds its time window by window instead of ending up
+ * unmatched. A call whose ENTER was held back by a duration filter and arrives after such a cut
+ * starts at the cut, as its caller's node does. Between batches only the open frames are kept, so memory follows in-flight depth.
+ * Finished spans whose parent is still open are carried the same way, up to a cap per source.
+ * Batches must be passed one at a time, in drain order.
+ *
+ * <p>Sources never share frames, so large batches are replayed source by source on the analysis
+ * pool and their roots concatenated in order.
  */
 public class CallTreeAnalyzer {
 
-  /** Build call tree from trace events */
-  public CallTree buildTree(List<TraceEvent> events) {
-    CallTree tree = new CallTree();
+  // Finished spans carried per source before they are reported without their parent
+  private static final int MAX_CARRIED_SPANS = 65_536;
+  // Smaller batches are replayed on the calling thread
+  private static final int MIN_PARALLEL_RECORDS = 16_384;
+  // Spans read from a JFR recording per batch
+  private static final int JFR_BATCH_SPANS = 65_536;
+
+  // Null to analyze on the calling thread only
+  private final ForkJoinPool pool;
+
+  // Open frames per source ring, bottom first. A ring holds whole traces back to back, so its
+  // segments can be replayed on one stack even when several virtual threads have leased it.
+  private final Map<Integer, List<OpenFrame>> openStacks = new HashMap<>();
 
-    // Group events by thread
-    Map<Long, List<TraceEvent>> eventsByThread = new HashMap<>();
-    for (TraceEvent event : events) {
-      eventsByThread.computeIfAbsent(event.getThreadId(), k -> new ArrayList<>()).add(event);
+  // Finished spans waiting for their parent, per source ring and depth
+  private final Map<Integer, List<List<PendingSpan>>> pendingSpans = new HashMap<>();
+
+  public CallTreeAnalyzer() {
+    this(null);
+  }
+
+  /** @param pool workers for large batches, or null */
+  public CallTreeAnalyzer(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  /** Build the call tree of the next batch, carrying open frames over from the previous one */
+  public CallTree buildTree(EventBatch events) {
+    if (events.holdsSpans()) {
+      return buildTreeFromSpans(events);
     }
 
-    // Build tree for each thread
-    for (Map.Entry<Long, List<TraceEvent>> entry : eventsByThread.entrySet()) {
-      long threadId = entry.getKey();
-      List<TraceEvent> threadEvents = entry.getValue();
+    List<Source<List<OpenFrame>>> sources = new ArrayList<>();
+    for (Map.Entry<Integer, List<Integer>> entry : segmentsBySource(events).entrySet()) {
+      List<OpenFrame> stack = openStacks.computeIfAbsent(entry.getKey(), k -> new ArrayList<>());
+      sources.add(new Source<>(entry.getKey(), entry.getValue(), stack));
+    }
 
-      buildThreadTree(tree, threadId, threadEvents);
+    CallTree tree =
+        concat(
+            ParallelWork.map(
+                poolFor(events),
+                sources,
+                1,
+                chunk -> {
+                  CallTree part = new CallTree();
+                  for (Source<List<OpenFrame>> source : chunk) {
+                    replayEvents(part, events, source);
+                  }
+                  return part;
+                }));
+
+    for (int i = 0; i < events.getEndedCount(); i++) {
+      openStacks.remove(events.getEndedSource(i));
+    }
+    openStacks.values().removeIf(List::isEmpty);
+    return tree;
+  }
+
+  /**
+   * Replay one source's segments on its stack, then close this batch's part of open frames
+   *
+   * <p>A source that lost records has its stack cleared afterwards: its frames may have exited
+   * unseen, and whatever follows the gap is replayed from an empty stack.
+   */
+  private static void replayEvents(
+      CallTree tree, EventBatch events, Source<List<OpenFrame>> source) {
+    List<OpenFrame> stack = source.state;
+    long cut = -1;
+    for (int segment : source.segments) {
+      int end = events.getSegmentEnd(segment);
+      for (int i = events.getSegmentStart(segment); i < end; i++) {
+        processEvent(tree, stack, events, i, events.getThreadId(i));
+      }
+      if (end > events.getSegmentStart(segment)) {
+        cut = events.getTimestamp(end - 1);
+      }
     }
 
+    if (cut >= 0) {
+      for (OpenFrame frame : stack) {
+        if (frame.node != null) {
+          frame.node.setEndTime(cut);
+          frame.node = null;
+        }
+        frame.resumeTime = cut;
+      }
+    }
+    if (events.hasLoss(source.id) && !stack.isEmpty()) {
+      System.err.printf(
+          "[VTracer] Source %d dropped events, discarding %d open frames%n",
+          source.id, stack.size());
+      stack.clear();
+    }
+  }
+
+  /**
+   * Build the call tree of the last batch and drop everything carried
+   *
+   * <p>Finished spans whose parent never finished become roots.
+   */
+  public CallTree buildFinalTree(EventBatch events) {
+    CallTree tree = buildTree(events);
+    int orphans = 0;
+    for (List<List<PendingSpan>> pending : pendingSpans.values()) {
+      orphans += releasePending(tree, pending);
+    }
+    if (orphans > 0) {
+      System.err.printf("[VTracer] %d spans with parent still open%n", orphans);
+    }
+    pendingSpans.clear();
+    openStacks.clear();
     return tree;
   }
 
-  private void buildThreadTree(CallTree tree, long threadId, List<TraceEvent> events) {
-    Deque<CallTree.Node> stack = new ArrayDeque<>();
+  private static void processEvent(
+      CallTree tree, List<OpenFrame> stack, EventBatch events, int index, long threadId) {
+    int methodId = events.getMethodId(index);
+    long timestamp = events.getTimestamp(index);
+
+    if (events.isEnter(index)) {
+      // An ENTER written late (minDuration) can predate its caller's node in this batch; the time
+      // before that was already reported as the caller's self time
+      long startTime =
+          stack.isEmpty() ? timestamp : Math.max(timestamp, stack.get(stack.size() - 1).resumeTime);
+      OpenFrame frame = new OpenFrame(methodId, threadId, startTime);
+      CallTree.Node node = new CallTree.Node(methodId, startTime, threadId);
+
+      if (stack.isEmpty()) {
+        // Root node
+        tree.addRoot(node);
+      } else {
+        // Child node
+        nodeOf(tree, stack, stack.size() - 1).addChild(node);
+      }
+
+      frame.node = node;
+      stack.add(frame);
+
+    } else if (events.isExit(index)) {
+      if (stack.isEmpty()) {
+        // Unmatched exit - log but continue
+        System.err.printf("[VTracer] Unmatched EXIT for method %d at %d%n", methodId, timestamp);
+        return;
+      }
+
+      // Frames above the matching one lost their EXIT to a full buffer
+      int match = stack.size() - 1;
+      while (match >= 0
+          && (stack.get(match).methodId != methodId || stack.get(match).threadId != threadId)) {
+        match--;
+      }
+      if (match < 0) {
+        // Its ENTER was lost, or the frames below it are stale: start over
+        System.err.printf(
+            "[VTracer] Unmatched EXIT for method %d at %d, discarding %d open frames%n",
+            methodId, timestamp, stack.size());
+        closeFrames(stack, 0, timestamp);
+        return;
+      }
+      if (match < stack.size() - 1) {
+        System.err.printf(
+            "[VTracer] EXIT for method %d skips %d frames whose EXIT was lost%n",
+            methodId, stack.size() - 1 - match);
+      }
+
+      CallTree.Node node = nodeOf(tree, stack, match);
+      closeFrames(stack, match + 1, timestamp);
+      stack.remove(match);
+      node.setEndTime(timestamp);
+    }
+  }
+
+  /** Pop the frames from {@code from} up, ending this batch's nodes of them at {@code endTime} */
+  private static void closeFrames(List<OpenFrame> stack, int from, long endTime) {
+    for (int i = stack.size() - 1; i >= from; i--) {
+      CallTree.Node node = stack.remove(i).node;
+      if (node != null) {
+        node.setEndTime(endTime);
+      }
+    }
+  }
+
+  /** This batch's node of an open frame, created with its callers' nodes on first use */
+  private static CallTree.Node nodeOf(CallTree tree, List<OpenFrame> stack, int index) {
+    int first = index;
+    while (first >= 0 && stack.get(first).node == null) {
+      first--;
+    }
+    for (int i = first + 1; i <= index; i++) {
+      OpenFrame frame = stack.get(i);
+      frame.node = new CallTree.Node(frame.methodId, frame.resumeTime, frame.threadId);
+      if (i == 0) {
+        tree.addRoot(frame.node);
+      } else {
+        stack.get(i - 1).node.addChild(frame.node);
+      }
+    }
+    return stack.get(index).node;
+  }
 
-    for (TraceEvent event : events) {
-      if (event.isEnter()) {
-        CallTree.Node node =
-            new CallTree.Node(
-                event.getMethodSignature(),
-                event.getClassName(),
-                event.getMethodName(),
-                event.getTimestamp(),
-                threadId);
+  /**
+   * Build the call trees of a JFR recording of method spans, one bounded batch at a time
+   *
+   * @param registry receives the recording's method names; node IDs resolve through it
+   * @param sink receives each batch's tree, the last one with the spans whose parent never finished
+   */
+  public void buildTrees(Path jfrFile, MethodRegistry registry, Consumer<CallTree> sink)
+      throws IOException {
+    JfrSpanReader.read(jfrFile, registry, JFR_BATCH_SPANS, batch -> sink.accept(buildTree(batch)));
+    sink.accept(buildFinalTree(new EventBatch(1, TraceEvent.SPAN_BYTES)));
+  }
 
-        if (stack.isEmpty()) {
-          // Root node
-          tree.addRoot(node);
+  /** Build call tree from completed-span records, carrying spans whose parent is still open */
+  public CallTree buildTreeFromSpans(EventBatch spans) {
+    AtomicInteger parentless = new AtomicInteger();
+    List<Source<List<List<PendingSpan>>>> sources = new ArrayList<>();
+    for (Map.Entry<Integer, List<Integer>> entry : segmentsBySource(spans).entrySet()) {
+      List<List<PendingSpan>> pending =
+          pendingSpans.computeIfAbsent(entry.getKey(), k -> new ArrayList<>());
+      sources.add(new Source<>(entry.getKey(), entry.getValue(), pending));
+    }
+
+    CallTree tree =
+        concat(
+            ParallelWork.map(
+                poolFor(spans),
+                sources,
+                1,
+                chunk -> {
+                  CallTree part = new CallTree();
+                  int lost = 0;
+                  for (Source<List<List<PendingSpan>>> source : chunk) {
+                    for (int segment : source.segments) {
+                      int end = spans.getSegmentEnd(segment);
+                      for (int i = spans.getSegmentStart(segment); i < end; i++) {
+                        lost += processSpan(part, source.state, spans, i);
+                      }
+                    }
+                  }
+                  if (lost > 0) {
+                    parentless.addAndGet(lost);
+                  }
+                  return part;
+                }));
+
+    // Parents still running - carry their finished subtrees unless there are too many
+    int orphans = 0;
+    for (int i = 0; i < spans.getEndedCount(); i++) {
+      List<List<PendingSpan>> pending = pendingSpans.remove(spans.getEndedSource(i));
+      if (pending != null) {
+        orphans += releasePending(tree, pending);
+      }
+    }
+    Iterator<List<List<PendingSpan>>> it = pendingSpans.values().iterator();
+    while (it.hasNext()) {
+      List<List<PendingSpan>> pending = it.next();
+      int carried = 0;
+      for (List<PendingSpan> level : pending) {
+        carried += level.size();
+      }
+      if (carried > MAX_CARRIED_SPANS) {
+        orphans += releasePending(tree, pending);
+      }
+      if (carried == 0 || carried > MAX_CARRIED_SPANS) {
+        it.remove();
+      }
+    }
+    if (orphans > 0) {
+      System.err.printf("[VTracer] %d spans reported without their still open parent%n", orphans);
+    }
+    int lost = parentless.get();
+    if (lost > 0) {
+      System.err.printf("[VTracer] %d spans reported without their lost parent%n", lost);
+    }
+
+    return tree;
+  }
+
+  /** Report carried spans as roots */
+  private static int releasePending(CallTree tree, List<List<PendingSpan>> pending) {
+    return releasePending(tree, pending, 0);
+  }
+
+  /** Report carried spans from {@code fromDepth} down as roots */
+  private static int releasePending(
+      CallTree tree, List<List<PendingSpan>> pending, int fromDepth) {
+    int released = 0;
+    for (int depth = fromDepth; depth < pending.size(); depth++) {
+      List<PendingSpan> level = pending.get(depth);
+      for (PendingSpan span : level) {
+        tree.addRoot(span.node);
+      }
+      released += level.size();
+      level.clear();
+    }
+    return released;
+  }
+
+  /** @return spans reported as roots because their recorded parent never finished */
+  private static int processSpan(
+      CallTree tree, List<List<PendingSpan>> pending, EventBatch spans, int index) {
+    int methodId = spans.getMethodId(index);
+    long startTime = spans.getTimestamp(index);
+    long threadId = spans.getThreadId(index);
+    int depth = spans.getDepth(index);
+
+    CallTree.Node node = new CallTree.Node(methodId, startTime, threadId);
+    node.setEndTime(startTime + spans.getDuration(index));
+
+    // Children finished before their parent, in call order. In exit order a span's parent is the
+    // next span one level up, so children recorded under another method or thread lost their
+    // parent to a drop and are reported as roots, as is anything left deeper.
+    int orphans = 0;
+    if (depth + 1 < pending.size()) {
+      List<PendingSpan> children = pending.get(depth + 1);
+      for (PendingSpan child : children) {
+        if (child.parentMethodId == methodId && child.node.getThreadId() == threadId) {
+          node.addChild(child.node);
         } else {
-          // Child node
-          stack.peek().addChild(node);
+          tree.addRoot(child.node);
+          orphans++;
         }
+      }
+      children.clear();
+      orphans += releasePending(tree, pending, depth + 2);
+    }
 
-        stack.push(node);
+    if (depth == 0) {
+      tree.addRoot(node);
+      return orphans;
+    }
 
-      } else if (event.isExit()) {
-        if (stack.isEmpty()) {
-          // Unmatched exit - log but continue
-          System.err.printf(
-              "[VTracer] Unmatched EXIT for %s at %d%n",
-              event.getMethodSignature(), event.getTimestamp());
-          continue;
-        }
+    while (pending.size() <= depth) {
+      pending.add(new ArrayList<>());
+    }
+    pending.get(depth).add(new PendingSpan(node, spans.getParentMethodId(index)));
+    return orphans;
+  }
 
-        CallTree.Node node = stack.pop();
+  private ForkJoinPool poolFor(EventBatch batch) {
+    return batch.size() >= MIN_PARALLEL_RECORDS ? pool : null;
+  }
 
-        // Validate method matches
-        if (!node.getMethodSignature().equals(event.getMethodSignature())) {
-          System.err.printf(
-              "[VTracer] Method mismatch: expected %s, got %s%n",
-              node.getMethodSignature(), event.getMethodSignature());
-          // Still set end time to be resilient
-        }
+  /** Segment indexes per source, sources in order of first appearance */
+  private static Map<Integer, List<Integer>> segmentsBySource(EventBatch batch) {
+    Map<Integer, List<Integer>> segments = new LinkedHashMap<>();
+    for (int segment = 0; segment < batch.getSegmentCount(); segment++) {
+      segments
+          .computeIfAbsent(batch.getSegmentSource(segment), k -> new ArrayList<>())
+          .add(segment);
+    }
+    return segments;
+  }
 
-        node.setEndTime(event.getTimestamp());
-      }
+  private static CallTree concat(List<CallTree> parts) {
+    if (parts.size() == 1) {
+      return parts.get(0);
+    }
+    CallTree tree = new CallTree();
+    for (CallTree part : parts) {
+      tree.getRoots().addAll(part.getRoots());
     }
+    return tree;
+  }
 
-    // Handle unmatched enters (shouldn't happen with proper instrumentation)
-    if (!stack.isEmpty()) {
-      System.err.printf(
-          "[VTracer] %d unmatched ENTER events in thread %d%n", stack.size(), threadId);
+  /** One source's segments of a batch and the state carried for it */
+  private static final class Source<S> {
+    private final int id;
+    private final List<Integer> segments;
+    private final S state;
+
+    private Source(int id, List<Integer> segments, S state) {
+      this.id = id;
+      this.segments = segments;
+      this.state = state;
+    }
+  }
+
+  /** A finished span waiting for its parent */
+  private static final class PendingSpan {
+    private final CallTree.Node node;
+    private final int parentMethodId;
+
+    private PendingSpan(CallTree.Node node, int parentMethodId) {
+      this.node = node;
+      this.parentMethodId = parentMethodId;
+    }
+  }
+
+  /** A frame entered but not yet exited, carried between batches */
+  private static final class OpenFrame {
+    private final int methodId;
+    private final long threadId;
+    // Start of the part not yet reported: entry, or the end of the previous batch
+    private long resumeTime;
+    // This batch's node, created on first use
+    private CallTree.Node node;
+
+    private OpenFrame(int methodId, long threadId, long resumeTime) {
+      this.methodId = methodId;
+      this.threadId = threadId;
+      this.resumeTime = resumeTime;
     }
   }
 
@@ -101,11 +461,9 @@ public class CallTreeAnalyzer {
       return roots;
     }
 
-    /** Tree node representing a method invocation */
+    /** Tree node representing a method invocation (method resolved via MethodRegistry) */
     public static class Node {
-      private final String methodSignature;
-      private final String className;
-      private final String methodName;
+      private final int methodId;
       private final long startTime;
       private final long threadId;
       private long endTime;
@@ -113,15 +471,8 @@ public class CallTreeAnalyzer {
       private long totalTime; // Including children
       private long selfTime; // Excluding children
 
-      public Node(
-          String methodSignature,
-          String className,
-          String methodName,
-          long startTime,
-          long threadId) {
-        this.methodSignature = methodSignature;
-        this.className = className;
-        this.methodName = methodName;
+      public Node(int methodId, long startTime, long threadId) {
+        this.methodId = methodId;
         this.startTime = startTime;
         this.threadId = threadId;
         this.endTime = -1;
@@ -140,16 +491,8 @@ public class CallTreeAnalyzer {
       }
 
       // Getters
-      public String getMethodSignature() {
-        return methodSignature;
-      }
-
-      public String getClassName() {
-        return className;
-      }
-
-      public String getMethodName() {
-        return methodName;
+      public int getMethodId() {
+        return methodId;
       }
 
       public long getStartTime() {
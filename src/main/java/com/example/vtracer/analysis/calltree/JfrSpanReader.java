@@ -0,0 +1,141 @@
+package com.example.vtracer.analysis.calltree;
+
+import com.example.vtracer.tracing.jfr.MethodNameEvent;
+import com.example.vtracer.tracing.jfr.MethodSpanEvent;
+import com.example.vtracer.tracing.model.EventBatch;
+import com.example.vtracer.tracing.model.MethodRegistry;
+import com.example.vtracer.tracing.model.TraceEvent;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import jdk.jfr.consumer.EventStream;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedThread;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Reads the method spans of a JFR recording back into SPAN records, a bounded batch at a time
+ *
+ * <p>Method IDs in the file are re-registered by name, so the result resolves through the given
+ * registry whichever process wrote the file. Names are written at chunk ends, after the spans that
+ * use them, so a first pass reads only the names. The second pass streams the spans in commit
+ * order, which is exit order since a span is committed when its call returns, and hands them on
+ * in batches of at most {@code batchSpans}: memory follows the batch size, not the file size.
+ *
+ * <p>Each thread's spans are one source until its outermost call finishes, so the analyzer
+ * carries only the traces still in progress between batches.
+ */
+public final class JfrSpanReader {
+
+  private JfrSpanReader() {}
+
+  /**
+   * Stream the spans of every thread in the recording
+   *
+   * @param sink receives each batch, which is reused once it returns
+   */
+  public static void read(
+      Path file, MethodRegistry registry, int batchSpans, Consumer<EventBatch> sink)
+      throws IOException {
+    Map<Integer, Integer> localIds = readNames(file, registry);
+    Batcher batcher = new Batcher(registry, localIds, batchSpans, sink);
+
+    try (EventStream stream = EventStream.openFile(file)) {
+      stream.setOrdered(true);
+      stream.onEvent(MethodSpanEvent.NAME, batcher::add);
+      stream.start();
+    }
+    batcher.flush();
+  }
+
+  /** Register every method name in the file, by the ID the file uses */
+  private static Map<Integer, Integer> readNames(Path file, MethodRegistry registry)
+      throws IOException {
+    Map<Integer, Integer> localIds = new HashMap<>();
+    try (RecordingFile recording = new RecordingFile(file)) {
+      while (recording.hasMoreEvents()) {
+        RecordedEvent event = recording.readEvent();
+        if (MethodNameEvent.NAME.equals(event.getEventType().getName())) {
+          localIds.computeIfAbsent(
+              event.getInt("methodId"),
+              id -> registry.register(event.getString("className"), event.getString("methodName")));
+        }
+      }
+    }
+    return localIds;
+  }
+
+  /** Turns span events into SPAN records, one source per thread trace */
+  private static final class Batcher {
+    private final MethodRegistry registry;
+    private final Map<Integer, Integer> localIds;
+    private final int batchSpans;
+    private final Consumer<EventBatch> sink;
+    private final EventBatch batch;
+    private final ByteBuffer record;
+    // Source of each thread with a trace in progress
+    private final Map<Long, Integer> sources;
+    private int nextSource;
+
+    private Batcher(
+        MethodRegistry registry,
+        Map<Integer, Integer> localIds,
+        int batchSpans,
+        Consumer<EventBatch> sink) {
+      this.registry = registry;
+      this.localIds = localIds;
+      this.batchSpans = batchSpans;
+      this.sink = sink;
+      this.batch = new EventBatch(batchSpans, TraceEvent.SPAN_BYTES);
+      this.record = EventBatch.allocate(1, TraceEvent.SPAN_BYTES);
+      this.sources = new HashMap<>();
+    }
+
+    private void add(RecordedEvent event) {
+      RecordedThread thread = event.getThread();
+      long threadId = thread != null ? thread.getJavaThreadId() : -1;
+      int parentMethodId = event.getInt("parentMethodId");
+      int depth = event.getInt("depth");
+
+      TraceEvent.writeSpanAt(
+          record,
+          0,
+          threadId,
+          localId(event.getInt("methodId")),
+          event.getLong("startNanos"),
+          event.getLong("elapsed"),
+          parentMethodId < 0 ? -1 : localId(parentMethodId),
+          depth);
+
+      // An outermost span ends the thread's trace, and with it the source
+      Integer source = depth == 0 ? sources.remove(threadId) : sources.get(threadId);
+      if (source == null) {
+        source = nextSource++;
+        if (depth != 0) {
+          sources.put(threadId, source);
+        }
+      }
+      batch.beginSegment(source);
+      batch.appendRecord(record, 0);
+
+      if (batch.size() >= batchSpans) {
+        flush();
+      }
+    }
+
+    private void flush() {
+      if (!batch.isEmpty()) {
+        sink.accept(batch);
+        batch.clear();
+      }
+    }
+
+    private int localId(int fileId) {
+      return localIds.computeIfAbsent(
+          fileId, id -> registry.register("unknown", "method#" + id));
+    }
+  }
+}
@@ -1,46 +1,111 @@
 package com.example.vtracer.analysis.calltree;
 
 import com.example.vtracer.analysis.calltree.CallTreeAnalyzer.CallTree;
+import com.example.vtracer.util.ParallelWork;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Calculates self-time for each node in call tree
  *
  * <p>Self-time = Total time - Sum of children's total time
+ *
+ * <p>Trees are walked iteratively, so depth costs array slots rather than Java stack frames. Roots
+ * are independent, so trees with many of them are split over the analysis pool.
  */
 public class SelfTimeCalculator {
 
+  // Fewer roots than this per task are not worth a fork
+  private static final int MIN_ROOTS_PER_TASK = 256;
+  private static final int INITIAL_DEPTH = 64;
+
+  // Null to calculate on the calling thread only
+  private final ForkJoinPool pool;
+
+  public SelfTimeCalculator() {
+    this(null);
+  }
+
+  /** @param pool workers for trees with many roots, or null */
+  public SelfTimeCalculator(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
   /** Calculate self-time for all nodes in tree */
   public void calculate(CallTree tree) {
-    for (CallTree.Node root : tree.getRoots()) {
-      calculateNode(root);
-    }
+    ParallelWork.map(
+        pool,
+        tree.getRoots(),
+        MIN_ROOTS_PER_TASK,
+        roots -> {
+          for (CallTree.Node root : roots) {
+            calculateNode(root);
+          }
+          return null;
+        });
   }
 
-  private void calculateNode(CallTree.Node node) {
-    if (!node.isComplete()) {
-      // Incomplete node (unmatched enter/exit)
-      node.setSelfTime(0);
+  /** Post-order walk of one subtree: a node is finished once all its children are */
+  private void calculateNode(CallTree.Node root) {
+    CallTree.Node[] nodes = new CallTree.Node[INITIAL_DEPTH];
+    int[] nextChildren = new int[INITIAL_DEPTH];
+    int depth = 0;
+
+    if (!root.isComplete()) {
+      root.setSelfTime(0);
       return;
     }
+    nodes[depth++] = root;
 
-    // Recursively calculate children first
-    for (CallTree.Node child : node.getChildren()) {
-      calculateNode(child);
+    while (depth > 0) {
+      CallTree.Node node = nodes[depth - 1];
+      List<CallTree.Node> children = node.getChildren();
+      int next = nextChildren[depth - 1];
+
+      if (next < children.size()) {
+        nextChildren[depth - 1] = next + 1;
+        CallTree.Node child = children.get(next);
+        if (!child.isComplete()) {
+          // Incomplete node (unmatched enter/exit)
+          child.setSelfTime(0);
+          continue;
+        }
+        if (depth == nodes.length) {
+          nodes = Arrays.copyOf(nodes, depth * 2);
+          nextChildren = Arrays.copyOf(nextChildren, depth * 2);
+        }
+        nodes[depth] = child;
+        nextChildren[depth] = 0;
+        depth++;
+        continue;
+      }
+
+      node.setSelfTime(selfTimeOf(node));
+      depth--;
     }
+  }
 
-    // Self time = total time - sum of children's total time
-    long childrenTime = node.getChildren().stream().mapToLong(CallTree.Node::getTotalTime).sum();
+  /**
+   * Total time minus the children's total time, never negative
+   *
+   * <p>Children must have their total time; their self time is not needed.
+   */
+  public static long selfTimeOf(CallTree.Node node) {
+    long childrenTime = 0;
+    for (CallTree.Node child : node.getChildren()) {
+      childrenTime += child.getTotalTime();
+    }
 
     long selfTime = node.getTotalTime() - childrenTime;
 
     // Guard against negative self-time (shouldn't happen but be defensive)
     if (selfTime < 0) {
       System.err.printf(
-          "[VTracer] Negative self-time for %s: total=%d, children=%d%n",
-          node.getMethodSignature(), node.getTotalTime(), childrenTime);
+          "[VTracer] Negative self-time for method %d: total=%d, children=%d%n",
+          node.getMethodId(), node.getTotalTime(), childrenTime);
       selfTime = 0;
     }
-
-    node.setSelfTime(selfTime);
+    return selfTime;
   }
 }
@@ -1,64 +1,123 @@
 package com.example.vtracer.analysis.flamegraph.builder;
 
 import com.example.vtracer.analysis.calltree.CallTreeAnalyzer.CallTree;
+import com.example.vtracer.analysis.calltree.SelfTimeCalculator;
 import com.example.vtracer.analysis.flamegraph.model.FlameGraph;
+import com.example.vtracer.analysis.flamegraph.model.FlameNode;
 import com.example.vtracer.analysis.flamegraph.model.ThreadFlameGraph;
-import java.util.ArrayDeque;
-import java.util.ArrayList;
-import java.util.Deque;
+import com.example.vtracer.tracing.model.MethodRegistry;
+import com.example.vtracer.util.ParallelWork;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Builds flame graphs from call trees
  *
- * <p>Algorithm: 1. Traverse call tree depth-first 2. Accumulate stack trace from root to leaf 3.
- * Emit stack trace with self-time at each leaf
+ * <p>One iterative depth-first pass per root: each call is mapped to the trie node of its path on
+ * the way down, and adds its self time there once all its children are done. Self time is computed
+ * and stored on each node in the same pass, so call trees need no separate {@link
+ * SelfTimeCalculator} run. Depth costs array slots rather than Java stack frames.
  */
 public class FlameGraphBuilder {
 
-  /** Build flame graph from call tree */
-  public static FlameGraph build(CallTree tree) {
-    FlameGraph flameGraph = new FlameGraph();
+  // Fewer roots than this per task are not worth a fork
+  private static final int MIN_ROOTS_PER_TASK = 256;
+  private static final int INITIAL_DEPTH = 64;
 
-    for (CallTree.Node root : tree.getRoots()) {
-      buildFromNode(root, new ArrayDeque<>(), flameGraph);
-    }
+  /** Build flame graph from call tree, resolving method IDs through the registry */
+  public static FlameGraph build(CallTree tree, MethodRegistry registry) {
+    return build(tree, registry, null);
+  }
 
+  /**
+   * Build flame graph from call tree, folding groups of roots in parallel
+   *
+   * @param pool workers for trees with many roots, or null
+   */
+  public static FlameGraph build(CallTree tree, MethodRegistry registry, ForkJoinPool pool) {
+    List<FlameGraph> parts =
+        ParallelWork.map(
+            pool,
+            tree.getRoots(),
+            MIN_ROOTS_PER_TASK,
+            roots -> {
+              FlameGraph part = new FlameGraph(registry);
+              for (CallTree.Node root : roots) {
+                fold(root, part);
+              }
+              return part;
+            });
+
+    FlameGraph flameGraph = parts.get(0);
+    for (int i = 1; i < parts.size(); i++) {
+      flameGraph.addAll(parts.get(i));
+    }
     return flameGraph;
   }
 
+  /** Build flame graph from an aggregated profile (the synthetic root itself is not a frame) */
+  public static FlameGraph build(FlameNode root, MethodRegistry registry) {
+    return new FlameGraph(root, registry);
+  }
+
   /** Build per-thread flame graphs */
-  public static ThreadFlameGraph buildPerThread(CallTree tree) {
-    ThreadFlameGraph threadFlameGraph = new ThreadFlameGraph();
+  public static ThreadFlameGraph buildPerThread(CallTree tree, MethodRegistry registry) {
+    ThreadFlameGraph threadFlameGraph = new ThreadFlameGraph(registry);
 
     for (CallTree.Node root : tree.getRoots()) {
       FlameGraph fg = threadFlameGraph.getOrCreateFlameGraph(root.getThreadId());
-      buildFromNode(root, new ArrayDeque<>(), fg);
+      fold(root, fg);
     }
 
     return threadFlameGraph;
   }
 
-  private static void buildFromNode(
-      CallTree.Node node, Deque<String> stack, FlameGraph flameGraph) {
-    if (!node.isComplete()) {
-      // Skip incomplete nodes
+  /** Set self times of one call subtree and add it to the trie; incomplete nodes are skipped */
+  private static void fold(CallTree.Node root, FlameGraph flameGraph) {
+    if (!root.isComplete()) {
+      root.setSelfTime(0);
       return;
     }
 
-    stack.addLast(node.getMethodSignature());
+    CallTree.Node[] nodes = new CallTree.Node[INITIAL_DEPTH];
+    int[] nextChildren = new int[INITIAL_DEPTH];
+    // Trie node of each level's path
+    FlameNode[] paths = new FlameNode[INITIAL_DEPTH];
+    nodes[0] = root;
+    paths[0] = flameGraph.getRoot().getOrCreateChild(root.getMethodId());
+    int depth = 1;
 
-    // If this is a leaf node or has self-time, emit stack
-    if (node.getSelfTime() > 0) {
-      List<String> stackList = new ArrayList<>(stack);
-      flameGraph.addSample(stackList, node.getSelfTime());
-    }
+    while (depth > 0) {
+      CallTree.Node node = nodes[depth - 1];
+      List<CallTree.Node> children = node.getChildren();
+      int next = nextChildren[depth - 1];
 
-    // Recurse to children
-    for (CallTree.Node child : node.getChildren()) {
-      buildFromNode(child, stack, flameGraph);
-    }
+      if (next < children.size()) {
+        nextChildren[depth - 1] = next + 1;
+        CallTree.Node child = children.get(next);
+        if (!child.isComplete()) {
+          child.setSelfTime(0);
+          continue;
+        }
+        if (depth == nodes.length) {
+          nodes = Arrays.copyOf(nodes, depth * 2);
+          nextChildren = Arrays.copyOf(nextChildren, depth * 2);
+          paths = Arrays.copyOf(paths, depth * 2);
+        }
+        nodes[depth] = child;
+        nextChildren[depth] = 0;
+        paths[depth] = paths[depth - 1].getOrCreateChild(child.getMethodId());
+        depth++;
+        continue;
+      }
 
-    stack.removeLast();
+      long selfTime = SelfTimeCalculator.selfTimeOf(node);
+      node.setSelfTime(selfTime);
+      if (selfTime > 0) {
+        paths[depth - 1].addSelfTime(selfTime);
+      }
+      depth--;
+    }
   }
 }
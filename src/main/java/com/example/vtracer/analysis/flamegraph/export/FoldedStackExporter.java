@@ -6,13 +6,14 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Map;
 
 /**
  * Exports flame graph to folded stack format
  *
  * <p>Format: stacktrace;with;semicolons <weight>
  *
+ * <p>Lines are spelled out from the flame graph's trie while writing, one at a time.
+ *
  * <p>This format is consumed by: - flamegraph.pl (Brendan Gregg) - Speedscope - FlameGraph tools
  */
 public class FoldedStackExporter {
@@ -22,20 +23,18 @@ public class FoldedStackExporter {
     Files.createDirectories(outputPath.getParent());
 
     try (BufferedWriter writer = Files.newBufferedWriter(outputPath)) {
-      for (Map.Entry<String, Long> entry : flameGraph.getFoldedStacks().entrySet()) {
-        String stack = entry.getKey();
-        long nanos = entry.getValue();
-
-        // Convert nanoseconds to samples (1 sample = 1ms by convention)
-        long samples = TimeUtils.nanosToMillis(nanos);
+      flameGraph.forEachFolded(
+          (stack, nanos) -> {
+            // Convert nanoseconds to samples (1 sample = 1ms by convention)
+            long samples = TimeUtils.nanosToMillis(nanos);
 
-        if (samples > 0) {
-          writer.write(stack);
-          writer.write(" ");
-          writer.write(String.valueOf(samples));
-          writer.write("\n");
-        }
-      }
+            if (samples > 0) {
+              writer.append(stack);
+              writer.write(" ");
+              writer.write(String.valueOf(samples));
+              writer.write("\n");
+            }
+          });
     }
   }
 
@@ -50,36 +49,34 @@ public class FoldedStackExporter {
       writer.write("# Flame graph data\n");
       writer.write("# Time unit: " + unit + "\n");
 
-      for (Map.Entry<String, Long> entry : flameGraph.getFoldedStacks().entrySet()) {
-        String stack = entry.getKey();
-        long value = entry.getValue();
-
-        // Convert based on unit
-        long displayValue;
-        switch (unit.toLowerCase()) {
-          case "ns":
-            displayValue = value;
-            break;
-          case "us":
-            displayValue = value / 1000;
-            break;
-          case "ms":
-            displayValue = value / 1_000_000;
-            break;
-          case "s":
-            displayValue = value / 1_000_000_000;
-            break;
-          default:
-            displayValue = value;
-        }
+      flameGraph.forEachFolded(
+          (stack, value) -> {
+            // Convert based on unit
+            long displayValue;
+            switch (unit.toLowerCase()) {
+              case "ns":
+                displayValue = value;
+                break;
+              case "us":
+                displayValue = value / 1000;
+                break;
+              case "ms":
+                displayValue = value / 1_000_000;
+                break;
+              case "s":
+                displayValue = value / 1_000_000_000;
+                break;
+              default:
+                displayValue = value;
+            }
 
-        if (displayValue > 0) {
-          writer.write(stack);
-          writer.write(" ");
-          writer.write(String.valueOf(displayValue));
-          writer.write("\n");
-        }
-      }
+            if (displayValue > 0) {
+              writer.append(stack);
+              writer.write(" ");
+              writer.write(String.valueOf(displayValue));
+              writer.write("\n");
+            }
+          });
     }
   }
 }
@@ -1,43 +1,137 @@
 package com.example.vtracer.analysis.flamegraph.model;
 
+import com.example.vtracer.tracing.model.MethodRegistry;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Flame graph representation
  *
- * <p>Stores folded stacks with accumulated time
+ * <p>Stores stacks as a trie of method IDs with accumulated self time per path, so a shared prefix
+ * is stored once and merging two graphs walks their nodes instead of parsing strings. Folded
+ * stacks are spelled out only while exporting.
  */
 public class FlameGraph {
 
-  private final Map<String, Long> foldedStacks;
+  private static final int INITIAL_DEPTH = 64;
 
-  public FlameGraph() {
-    this.foldedStacks = new HashMap<>();
+  private final FlameNode root;
+  private final MethodRegistry registry;
+
+  public FlameGraph(MethodRegistry registry) {
+    this(FlameNode.root(), registry);
+  }
+
+  /**
+   * Wrap an existing trie, without copying it
+   *
+   * @param root synthetic root whose children are the outermost frames
+   */
+  public FlameGraph(FlameNode root, MethodRegistry registry) {
+    this.root = root;
+    this.registry = registry;
   }
 
   /**
    * Add a stack sample with given weight
    *
-   * @param stack stack trace as list of method signatures (root to leaf)
+   * @param stack method IDs, root to leaf
    * @param weight time in nanoseconds
    */
-  public void addSample(java.util.List<String> stack, long weight) {
-    if (stack.isEmpty() || weight == 0) {
+  public void addSample(int[] stack, long weight) {
+    if (stack.length == 0 || weight == 0) {
       return;
     }
 
-    String folded = String.join(";", stack);
-    foldedStacks.merge(folded, weight, Long::sum);
+    FlameNode node = root;
+    for (int methodId : stack) {
+      node = node.getOrCreateChild(methodId);
+    }
+    node.addSelfTime(weight);
+  }
+
+  /** Add every stack of another flame graph to this one */
+  public void addAll(FlameGraph other) {
+    root.merge(other.root);
+  }
+
+  /** Synthetic root of the trie; its children are the outermost frames */
+  public FlameNode getRoot() {
+    return root;
+  }
+
+  public MethodRegistry getRegistry() {
+    return registry;
   }
 
-  /** Get folded stacks map */
+  /**
+   * Visit every stack with self time, folded as method signatures joined by ';', root first
+   *
+   * <p>The stack passed to the visitor is only valid during the call.
+   */
+  public void forEachFolded(FoldedStackVisitor visitor) throws IOException {
+    FlameNode[] nodes = new FlameNode[INITIAL_DEPTH];
+    int[] nextChildren = new int[INITIAL_DEPTH];
+    // Path length before each level's frame was appended
+    int[] pathLengths = new int[INITIAL_DEPTH];
+    StringBuilder path = new StringBuilder();
+    nodes[0] = root;
+    int depth = 1;
+
+    while (depth > 0) {
+      FlameNode node = nodes[depth - 1];
+      int next = nextChildren[depth - 1];
+
+      if (next == node.getChildCount()) {
+        depth--;
+        path.setLength(pathLengths[depth]);
+        continue;
+      }
+
+      nextChildren[depth - 1] = next + 1;
+      FlameNode child = node.childAt(next);
+      if (depth == nodes.length) {
+        nodes = Arrays.copyOf(nodes, depth * 2);
+        nextChildren = Arrays.copyOf(nextChildren, depth * 2);
+        pathLengths = Arrays.copyOf(pathLengths, depth * 2);
+      }
+      nodes[depth] = child;
+      nextChildren[depth] = 0;
+      pathLengths[depth] = path.length();
+      if (depth > 1) {
+        path.append(';');
+      }
+      path.append(registry.getSignature(child.getMethodId()));
+      depth++;
+
+      if (child.getSelfTime() != 0) {
+        visitor.visit(path, child.getSelfTime());
+      }
+    }
+  }
+
+  /** Get folded stacks map - built on each call, for callers that want the strings */
   public Map<String, Long> getFoldedStacks() {
+    Map<String, Long> foldedStacks = new HashMap<>();
+    try {
+      forEachFolded((stack, weight) -> foldedStacks.merge(stack.toString(), weight, Long::sum));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
     return foldedStacks;
   }
 
   /** Get total time across all stacks */
   public long getTotalTime() {
-    return foldedStacks.values().stream().mapToLong(Long::longValue).sum();
+    return root.getTotalTime();
+  }
+
+  /** Receives one folded stack at a time */
+  @FunctionalInterface
+  public interface FoldedStackVisitor {
+    void visit(CharSequence stack, long weight) throws IOException;
   }
 }
@@ -1,58 +1,220 @@
 package com.example.vtracer.analysis.flamegraph.model;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Node in a flame graph
  *
- * <p>Represents a stack frame with accumulated time
+ * <p>Represents a stack frame with accumulated time and, for aggregated profiles, call count.
+ * Frames are method IDs resolved through a {@code MethodRegistry}, so a path is shared by every
+ * stack below it and names are only looked up when a report is written.
+ *
+ * <p>Children are held in a plain array. Past {@value #INDEX_THRESHOLD} of them, an open-addressed
+ * table keyed by the int method ID finds a child without boxing.
  */
 public class FlameNode {
 
-  private final String methodSignature;
+  /** Method ID of the synthetic root, which is not a frame */
+  public static final int ROOT_ID = -1;
+
+  // Children are scanned linearly until there are this many, then indexed
+  private static final int INDEX_THRESHOLD = 8;
+  private static final int INITIAL_DEPTH = 64;
+  private static final FlameNode[] NO_CHILDREN = new FlameNode[0];
+
+  // Merge work stack, reused by every merge on the same thread
+  private static final ThreadLocal<MergeStack> MERGE_STACK =
+      ThreadLocal.withInitial(MergeStack::new);
+
+  private final int methodId;
   private long selfTime;
-  private final List<FlameNode> children;
-  private final Map<String, FlameNode> childrenMap;
+  private long callCount;
+  private FlameNode[] children;
+  private int childCount;
+  // Open-addressed by method ID, null below the threshold
+  private FlameNode[] index;
 
-  public FlameNode(String methodSignature) {
-    this.methodSignature = methodSignature;
+  public FlameNode(int methodId) {
+    this.methodId = methodId;
     this.selfTime = 0;
-    this.children = new ArrayList<>();
-    this.childrenMap = new HashMap<>();
+    this.callCount = 0;
+    this.children = NO_CHILDREN;
+  }
+
+  /** Synthetic root of a profile */
+  public static FlameNode root() {
+    return new FlameNode(ROOT_ID);
   }
 
   public void addSelfTime(long time) {
     this.selfTime += time;
   }
 
-  public FlameNode getOrCreateChild(String methodSignature) {
-    return childrenMap.computeIfAbsent(methodSignature, sig -> {
-      FlameNode newChild = new FlameNode(sig);
-      children.add(newChild);
-      return newChild;
-    });
+  public void addCalls(long calls) {
+    this.callCount += calls;
+  }
+
+  public FlameNode getOrCreateChild(int methodId) {
+    FlameNode child = getChild(methodId);
+    if (child == null) {
+      child = addChild(methodId);
+    }
+    return child;
+  }
+
+  /** Child for a method, or null */
+  public FlameNode getChild(int methodId) {
+    if (index != null) {
+      int mask = index.length - 1;
+      for (int slot = slot(methodId, mask); ; slot = (slot + 1) & mask) {
+        FlameNode child = index[slot];
+        if (child == null || child.methodId == methodId) {
+          return child;
+        }
+      }
+    }
+    for (int i = 0; i < childCount; i++) {
+      FlameNode child = children[i];
+      if (child.methodId == methodId) {
+        return child;
+      }
+    }
+    return null;
+  }
+
+  private FlameNode addChild(int methodId) {
+    FlameNode child = new FlameNode(methodId);
+    if (childCount == children.length) {
+      children = Arrays.copyOf(children, Math.max(2, childCount * 2));
+    }
+    children[childCount++] = child;
+
+    if (index != null && childCount * 2 <= index.length) {
+      insert(index, child);
+    } else if (childCount > INDEX_THRESHOLD) {
+      // Rebuild at most half full, so probes stay short
+      FlameNode[] table = new FlameNode[Integer.highestOneBit(childCount) * 4];
+      for (int i = 0; i < childCount; i++) {
+        insert(table, children[i]);
+      }
+      index = table;
+    }
+    return child;
   }
 
-  public String getMethodSignature() {
-    return methodSignature;
+  private static void insert(FlameNode[] table, FlameNode child) {
+    int mask = table.length - 1;
+    int slot = slot(child.methodId, mask);
+    while (table[slot] != null) {
+      slot = (slot + 1) & mask;
+    }
+    table[slot] = child;
+  }
+
+  private static int slot(int methodId, int mask) {
+    // Spread sequential IDs across the table
+    return (methodId * 0x9E3779B9) >>> 16 & mask;
+  }
+
+  /** Add the times and calls of another subtree of the same path into this one */
+  public void merge(FlameNode other) {
+    MergeStack stack = MERGE_STACK.get();
+    FlameNode[] targets = stack.targets;
+    FlameNode[] sources = stack.sources;
+    targets[0] = this;
+    sources[0] = other;
+    int size = 1;
+    int used = 1;
+
+    while (size > 0) {
+      size--;
+      FlameNode target = targets[size];
+      FlameNode source = sources[size];
+      target.selfTime += source.selfTime;
+      target.callCount += source.callCount;
+
+      int count = source.childCount;
+      if (size + count > targets.length) {
+        int capacity = Math.max(targets.length * 2, size + count);
+        targets = stack.targets = Arrays.copyOf(targets, capacity);
+        sources = stack.sources = Arrays.copyOf(sources, capacity);
+      }
+      FlameNode[] sourceChildren = source.children;
+      for (int i = 0; i < count; i++) {
+        FlameNode child = sourceChildren[i];
+        targets[size] = target.getOrCreateChild(child.methodId);
+        sources[size] = child;
+        size++;
+      }
+      used = Math.max(used, size);
+    }
+    // Drop the references so merged trees are not kept alive by the thread
+    Arrays.fill(targets, 0, used, null);
+    Arrays.fill(sources, 0, used, null);
+  }
+
+  public int getMethodId() {
+    return methodId;
   }
 
   public long getSelfTime() {
     return selfTime;
   }
 
+  public long getCallCount() {
+    return callCount;
+  }
+
+  /** Children in insertion order, as a read-only view */
   public List<FlameNode> getChildren() {
-    return children;
+    return new AbstractList<>() {
+      @Override
+      public FlameNode get(int i) {
+        return childAt(i);
+      }
+
+      @Override
+      public int size() {
+        return childCount;
+      }
+    };
+  }
+
+  public int getChildCount() {
+    return childCount;
+  }
+
+  /** Child at a position in insertion order, for walks that should not allocate */
+  public FlameNode childAt(int i) {
+    if (i >= childCount) {
+      throw new IndexOutOfBoundsException(i);
+    }
+    return children[i];
   }
 
   public long getTotalTime() {
-    long total = selfTime;
-    for (FlameNode child : children) {
-      total += child.getTotalTime();
+    FlameNode[] pending = new FlameNode[INITIAL_DEPTH];
+    pending[0] = this;
+    int size = 1;
+    long total = 0;
+
+    while (size > 0) {
+      FlameNode node = pending[--size];
+      total += node.selfTime;
+      if (size + node.childCount > pending.length) {
+        pending = Arrays.copyOf(pending, Math.max(pending.length * 2, size + node.childCount));
+      }
+      System.arraycopy(node.children, 0, pending, size, node.childCount);
+      size += node.childCount;
     }
     return total;
   }
+
+  /** Scratch stacks of one thread's merges */
+  private static final class MergeStack {
+    FlameNode[] targets = new FlameNode[INITIAL_DEPTH];
+    FlameNode[] sources = new FlameNode[INITIAL_DEPTH];
+  }
 }
@@ -1,5 +1,6 @@
 package com.example.vtracer.analysis.flamegraph.model;
 
+import com.example.vtracer.tracing.model.MethodRegistry;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -7,13 +8,15 @@ import java.util.Map;
 public class ThreadFlameGraph {
 
   private final Map<Long, FlameGraph> flameGraphsByThread;
+  private final MethodRegistry registry;
 
-  public ThreadFlameGraph() {
+  public ThreadFlameGraph(MethodRegistry registry) {
     this.flameGraphsByThread = new HashMap<>();
+    this.registry = registry;
   }
 
   public FlameGraph getOrCreateFlameGraph(long threadId) {
-    return flameGraphsByThread.computeIfAbsent(threadId, k -> new FlameGraph());
+    return flameGraphsByThread.computeIfAbsent(threadId, k -> new FlameGraph(registry));
   }
 
   public Map<Long, FlameGraph> getFlameGraphsByThread() {
@@ -22,12 +25,10 @@ public class ThreadFlameGraph {
 
   /** Merge all thread flame graphs into one */
   public FlameGraph merge() {
-    FlameGraph merged = new FlameGraph();
+    FlameGraph merged = new FlameGraph(registry);
 
     for (FlameGraph fg : flameGraphsByThread.values()) {
-      for (Map.Entry<String, Long> entry : fg.getFoldedStacks().entrySet()) {
-        merged.addSample(java.util.Arrays.asList(entry.getKey().split(";")), entry.getValue());
-      }
+      merged.addAll(fg);
     }
 
     return merged;
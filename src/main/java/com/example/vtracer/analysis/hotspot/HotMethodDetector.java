@@ -0,0 +1,100 @@
+package com.example.vtracer.analysis.hotspot;
+
+import com.example.vtracer.tracing.model.LatencyHistogram;
+import com.example.vtracer.tracing.model.MethodLatencies;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds methods that are called very often but take almost no time
+ *
+ * <p>Such methods (getters, tiny helpers) make up most of the tracing overhead and add nothing to
+ * a flame graph. Their call rate is estimated from the traced calls in each latency histogram since
+ * the previous check, scaled up by the sample rate. A method qualifies when that rate is high and
+ * its p90 duration, which bounds its self time, is near zero.
+ */
+public class HotMethodDetector {
+
+  // Fewer traced calls than this in a window is too little evidence
+  private static final long MIN_TRACED_CALLS = 1_000;
+
+  private final double minCallsPerSecond;
+  private final long maxNanos;
+
+  // Consumer-owned: traced calls per method at the previous check
+  private long[] lastCounts;
+  private long lastCheck;
+
+  /**
+   * @param minCallsPerSecond estimated call rate above which a method is hot
+   * @param maxNanos p90 duration below which a method is trivial
+   */
+  public HotMethodDetector(double minCallsPerSecond, long maxNanos) {
+    this.minCallsPerSecond = minCallsPerSecond;
+    this.maxNanos = maxNanos;
+    this.lastCounts = new long[0];
+    this.lastCheck = System.nanoTime();
+  }
+
+  /** Hot, trivial methods since the previous call */
+  public List<HotMethod> detect(MethodLatencies latencies, double sampleRate) {
+    long now = System.nanoTime();
+    double seconds = (now - lastCheck) / 1_000_000_000.0;
+    lastCheck = now;
+
+    int capacity = latencies.capacity();
+    if (lastCounts.length < capacity) {
+      lastCounts = Arrays.copyOf(lastCounts, capacity);
+    }
+
+    List<HotMethod> hot = new ArrayList<>();
+    for (int methodId = 0; methodId < capacity; methodId++) {
+      LatencyHistogram histogram = latencies.get(methodId);
+      if (histogram == null) {
+        continue;
+      }
+
+      LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+      long traced = snapshot.getCount() - lastCounts[methodId];
+      lastCounts[methodId] = snapshot.getCount();
+
+      if (traced < MIN_TRACED_CALLS || seconds <= 0 || sampleRate <= 0) {
+        continue;
+      }
+
+      double callsPerSecond = traced / sampleRate / seconds;
+      long p90 = snapshot.getValueAtPercentile(90.0);
+      if (callsPerSecond >= minCallsPerSecond && p90 <= maxNanos) {
+        hot.add(new HotMethod(methodId, callsPerSecond, p90));
+      }
+    }
+
+    return hot;
+  }
+
+  /** A method picked for de-instrumentation and the evidence for it */
+  public static class HotMethod {
+    private final int methodId;
+    private final double callsPerSecond;
+    private final long p90Nanos;
+
+    public HotMethod(int methodId, double callsPerSecond, long p90Nanos) {
+      this.methodId = methodId;
+      this.callsPerSecond = callsPerSecond;
+      this.p90Nanos = p90Nanos;
+    }
+
+    public int getMethodId() {
+      return methodId;
+    }
+
+    public double getCallsPerSecond() {
+      return callsPerSecond;
+    }
+
+    public long getP90Nanos() {
+      return p90Nanos;
+    }
+  }
+}
@@ -0,0 +1,164 @@
+package com.example.vtracer.analysis.hotspot;
+
+import com.example.vtracer.analysis.flamegraph.model.FlameNode;
+import com.example.vtracer.tracing.model.MethodRegistry;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Picks the methods worth instrumenting from a stack-sampled profile
+ *
+ * <p>Methods are ranked by inclusive time: every sample whose stack contains the method counts
+ * once, however deep it recurses. The top methods whose class may be instrumented are selected
+ * together with every instrumentable method they were sampled calling, so their time splits into
+ * exact child timings.
+ */
+public class HotPathSelector {
+
+  private final int topMethods;
+
+  /** @param topMethods methods selected by rank, before their callees are added */
+  public HotPathSelector(int topMethods) {
+    this.topMethods = topMethods;
+  }
+
+  /**
+   * Rank the sampled methods and select the hot paths
+   *
+   * @param profile synthetic root of sampled stacks
+   * @param registry resolves the profile's method IDs
+   * @param instrumentable whether a class may be instrumented
+   */
+  public Selection select(
+      FlameNode profile, MethodRegistry registry, Predicate<String> instrumentable) {
+    Map<Integer, Long> inclusive = new HashMap<>();
+    Map<Integer, Set<Integer>> callees = new HashMap<>();
+    Map<Integer, Integer> onPath = new HashMap<>();
+    for (FlameNode child : profile.getChildren()) {
+      visit(child, inclusive, callees, onPath);
+    }
+
+    List<HotFrame> ranked = new ArrayList<>();
+    for (Map.Entry<Integer, Long> entry : inclusive.entrySet()) {
+      HotFrame frame = HotFrame.of(registry, entry.getKey(), entry.getValue());
+      if (instrumentable.test(frame.getClassName())) {
+        ranked.add(frame);
+      }
+    }
+    ranked.sort((a, b) -> Long.compare(b.getInclusiveNanos(), a.getInclusiveNanos()));
+    if (ranked.size() > topMethods) {
+      ranked = new ArrayList<>(ranked.subList(0, topMethods));
+    }
+
+    Map<String, Set<String>> methodsByClass = new HashMap<>();
+    for (HotFrame frame : ranked) {
+      add(methodsByClass, frame);
+      for (int callee : callees.getOrDefault(frame.getMethodId(), Set.of())) {
+        HotFrame calleeFrame = HotFrame.of(registry, callee, 0);
+        if (instrumentable.test(calleeFrame.getClassName())) {
+          add(methodsByClass, calleeFrame);
+        }
+      }
+    }
+    return new Selection(ranked, methodsByClass);
+  }
+
+  /** Total time of the node, credited to its method unless an ancestor already counts it */
+  private static long visit(
+      FlameNode node,
+      Map<Integer, Long> inclusive,
+      Map<Integer, Set<Integer>> callees,
+      Map<Integer, Integer> onPath) {
+    int methodId = node.getMethodId();
+    boolean outermost = onPath.merge(methodId, 1, Integer::sum) == 1;
+
+    long total = node.getSelfTime();
+    for (FlameNode child : node.getChildren()) {
+      total += visit(child, inclusive, callees, onPath);
+      callees.computeIfAbsent(methodId, k -> new HashSet<>()).add(child.getMethodId());
+    }
+
+    if (outermost) {
+      inclusive.merge(methodId, total, Long::sum);
+      onPath.remove(methodId);
+    } else {
+      onPath.merge(methodId, -1, Integer::sum);
+    }
+    return total;
+  }
+
+  private static void add(Map<String, Set<String>> methodsByClass, HotFrame frame) {
+    methodsByClass
+        .computeIfAbsent(frame.getClassName(), k -> new HashSet<>())
+        .add(frame.getMethodName());
+  }
+
+  /** Ranked methods and everything selected for instrumentation */
+  public static class Selection {
+    private final List<HotFrame> ranked;
+    private final Map<String, Set<String>> methodsByClass;
+
+    Selection(List<HotFrame> ranked, Map<String, Set<String>> methodsByClass) {
+      this.ranked = ranked;
+      this.methodsByClass = methodsByClass;
+    }
+
+    /** Top methods, hottest first */
+    public List<HotFrame> getRanked() {
+      return ranked;
+    }
+
+    /** Top methods plus their callees, by class */
+    public Map<String, Set<String>> getMethodsByClass() {
+      return methodsByClass;
+    }
+  }
+
+  /** A sampled method and its inclusive time */
+  public static class HotFrame {
+    private final int methodId;
+    private final String className;
+    private final String methodName;
+    private final long inclusiveNanos;
+
+    private HotFrame(int methodId, String className, String methodName, long inclusiveNanos) {
+      this.methodId = methodId;
+      this.className = className;
+      this.methodName = methodName;
+      this.inclusiveNanos = inclusiveNanos;
+    }
+
+    static HotFrame of(MethodRegistry registry, int methodId, long inclusiveNanos) {
+      return new HotFrame(
+          methodId,
+          registry.getClassName(methodId),
+          registry.getMethodName(methodId),
+          inclusiveNanos);
+    }
+
+    public int getMethodId() {
+      return methodId;
+    }
+
+    public String getClassName() {
+      return className;
+    }
+
+    public String getMethodName() {
+      return methodName;
+    }
+
+    public String getSignature() {
+      return className + "." + methodName;
+    }
+
+    public long getInclusiveNanos() {
+      return inclusiveNanos;
+    }
+  }
+}
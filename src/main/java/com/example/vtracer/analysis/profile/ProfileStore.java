@@ -0,0 +1,185 @@
+package com.example.vtracer.analysis.profile;
+
+import com.example.vtracer.analysis.flamegraph.model.FlameNode;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rolling profile windows (e.g. the last 1m, 5m, 15m and 1h) built from flushed profiles
+ *
+ * <p>Each window is a ring of {@value #SLICES_PER_WINDOW} time slices, each a call-path trie of
+ * method IDs. A flushed profile is merged into the current slice of every window, and a slice is
+ * cleared when the ring comes back round to it, so a window always covers the current slice and
+ * the ones before it, at most its length. Slices stop growing at a fixed node count: time of a
+ * path that does not fit is credited to its deepest caller already present (or dropped, for a new
+ * outermost method), so memory is bounded by windows x slices x nodes whatever the application
+ * does.
+ */
+public class ProfileStore {
+
+  static final int SLICES_PER_WINDOW = 10;
+
+  private static final int INITIAL_DEPTH = 64;
+
+  private final Map<String, Window> windows;
+  private final int maxSliceNodes;
+  private final long startNanos;
+
+  // Guarded by this
+  private long truncatedNanos;
+
+  /**
+   * @param windowNanos window length by name, in the order they are listed
+   * @param maxSliceNodes call paths kept per slice
+   */
+  public ProfileStore(Map<String, Long> windowNanos, int maxSliceNodes, long startNanos) {
+    this.windows = new LinkedHashMap<>();
+    for (Map.Entry<String, Long> entry : windowNanos.entrySet()) {
+      windows.put(entry.getKey(), new Window(entry.getValue() / SLICES_PER_WINDOW));
+    }
+    this.maxSliceNodes = maxSliceNodes;
+    this.startNanos = startNanos;
+  }
+
+  /**
+   * Add a flushed profile to every window
+   *
+   * @param profile synthetic root, read only
+   * @param nowNanos {@link System#nanoTime()} of the flush
+   */
+  public synchronized void add(FlameNode profile, long nowNanos) {
+    long elapsed = nowNanos - startNanos;
+    for (Window window : windows.values()) {
+      Slice slice = window.current(elapsed / window.sliceNanos);
+      truncatedNanos += slice.merge(profile, maxSliceNodes);
+    }
+  }
+
+  /**
+   * Merge the slices of one window
+   *
+   * @param nowNanos {@link System#nanoTime()} the window ends at
+   * @return synthetic root of the window's profile, or null if there is no such window
+   */
+  public synchronized FlameNode window(String name, long nowNanos) {
+    Window window = windows.get(name);
+    if (window == null) {
+      return null;
+    }
+
+    long epoch = (nowNanos - startNanos) / window.sliceNanos;
+    FlameNode merged = FlameNode.root();
+    for (Slice slice : window.slices) {
+      if (slice.epoch > epoch - SLICES_PER_WINDOW && slice.epoch <= epoch) {
+        merged.merge(slice.root);
+      }
+    }
+    return merged;
+  }
+
+  /** Window names, in configured order */
+  public Set<String> getWindowNames() {
+    return windows.keySet();
+  }
+
+  /** Write window count, trie nodes held and time lost to the node cap to a metrics file */
+  public synchronized void writeMetrics(Writer w) throws IOException {
+    long nodes = 0;
+    for (Window window : windows.values()) {
+      for (Slice slice : window.slices) {
+        nodes += slice.nodes;
+      }
+    }
+    w.write("profileWindows: " + windows.size() + "\n");
+    w.write("profileNodes: " + nodes + "\n");
+    w.write("profileTruncatedNanos: " + truncatedNanos + "\n");
+  }
+
+  /** One window's ring of slices */
+  private static class Window {
+    private final long sliceNanos;
+    private final Slice[] slices;
+
+    Window(long sliceNanos) {
+      this.sliceNanos = Math.max(1, sliceNanos);
+      this.slices = new Slice[SLICES_PER_WINDOW];
+      for (int i = 0; i < SLICES_PER_WINDOW; i++) {
+        slices[i] = new Slice();
+      }
+    }
+
+    /** Slice of the given epoch, cleared first if it still holds an older one */
+    Slice current(long epoch) {
+      Slice slice = slices[(int) (epoch % SLICES_PER_WINDOW)];
+      if (slice.epoch != epoch) {
+        slice.reset(epoch);
+      }
+      return slice;
+    }
+  }
+
+  /** Profile of one time slice */
+  private static class Slice {
+    private long epoch = Long.MIN_VALUE;
+    private FlameNode root = FlameNode.root();
+    // Trie nodes below the root
+    private int nodes;
+
+    void reset(long epoch) {
+      this.epoch = epoch;
+      this.root = FlameNode.root();
+      this.nodes = 0;
+    }
+
+    /**
+     * Add a profile, creating at most {@code maxNodes} nodes in total
+     *
+     * @return nanoseconds of paths that did not fit
+     */
+    long merge(FlameNode profile, int maxNodes) {
+      FlameNode[] targets = new FlameNode[INITIAL_DEPTH];
+      FlameNode[] sources = new FlameNode[INITIAL_DEPTH];
+      targets[0] = root;
+      sources[0] = profile;
+      int size = 1;
+      long truncated = 0;
+
+      while (size > 0) {
+        size--;
+        FlameNode target = targets[size];
+        FlameNode source = sources[size];
+        target.addSelfTime(source.getSelfTime());
+        target.addCalls(source.getCallCount());
+
+        for (int i = 0; i < source.getChildCount(); i++) {
+          FlameNode child = source.childAt(i);
+          FlameNode next = target.getChild(child.getMethodId());
+          if (next == null) {
+            if (nodes >= maxNodes) {
+              long nanos = child.getTotalTime();
+              if (target != root) {
+                target.addSelfTime(nanos);
+              }
+              truncated += nanos;
+              continue;
+            }
+            next = target.getOrCreateChild(child.getMethodId());
+            nodes++;
+          }
+          if (size == targets.length) {
+            targets = Arrays.copyOf(targets, size * 2);
+            sources = Arrays.copyOf(sources, size * 2);
+          }
+          targets[size] = next;
+          sources[size] = child;
+          size++;
+        }
+      }
+      return truncated;
+    }
+  }
+}
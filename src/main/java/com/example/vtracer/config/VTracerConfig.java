@@ -2,9 +2,13 @@ package com.example.vtracer.config;
 
 import static net.bytebuddy.matcher.ElementMatchers.*;
 
+import com.example.vtracer.util.PrefixTrie;
+import com.example.vtracer.util.TimeUtils;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.regex.Pattern;
 import net.bytebuddy.matcher.ElementMatcher;
@@ -21,6 +25,42 @@ public class VTracerConfig {
     JSON
   }
 
+  /** How profile data is collected */
+  public enum Engine {
+    /** Advice on every matched method: exact call counts and durations */
+    INSTRUMENTATION,
+    /** Periodic JFR stack samples: no advice, cost bounded by the sampling interval */
+    SAMPLING,
+    /** Stack samples pick the hot methods, which alone are instrumented */
+    HYBRID
+  }
+
+  /** What the collector writes for each sampled call */
+  public enum CollectorMode {
+    /** ENTER and EXIT event pair */
+    EVENTS,
+    /** One completed-span record, written at exit */
+    SPANS,
+    /** No records: time and calls summed per call path in place, merged on each flush */
+    AGGREGATE,
+    /** One JFR event per completed call, written to a .jfr file and rebuilt at shutdown */
+    JFR
+  }
+
+  /** What happens to a record when its ring is full */
+  public enum OverflowPolicy {
+    /** Count it as dropped */
+    DROP,
+    /** Append it to a memory-mapped spill file read back by the next drain */
+    SPILL
+  }
+
+  // Never instrumented, whatever the patterns say
+  private static final String[] EXCLUDED_PACKAGES = {
+    "com.example.vtracer", "java.", "javax.", "sun.", "com.sun.", "jdk.", "net.bytebuddy."
+  };
+  private static final PrefixTrie EXCLUDED_PREFIXES = new PrefixTrie(EXCLUDED_PACKAGES);
+
   private final boolean enabled;
   private final double initialSampleRate;
   private final double targetOverhead;
@@ -32,6 +72,34 @@ public class VTracerConfig {
   private final Path outputDir;
   private final OutputFormat outputFormat;
   private final int reportIntervalSeconds;
+  private final boolean virtualThreadMode;
+  private final CollectorMode collectorMode;
+  private final long minDurationNanos;
+  // Class name pattern -> minimum duration, first match wins
+  private final Map<Pattern, Long> packageMinDurations;
+  private final OverflowPolicy overflowPolicy;
+  private final Path spillFile;
+  private final long spillSizeBytes;
+  private final Path jfrFile;
+  private final long jfrMaxSizeBytes;
+  private final long jfrMaxAgeNanos;
+  private final Engine engine;
+  private final long samplingIntervalNanos;
+  private final long hybridWarmupNanos;
+  private final long hybridIntervalNanos;
+  private final int hybridTopMethods;
+  private final int analysisParallelism;
+  // Window name -> length, in listed order; empty when the profile store is off
+  private final Map<String, Long> profileWindows;
+  private final int profileSliceNodes;
+  private final boolean deinstrumentEnabled;
+  private final double deinstrumentMinCallRate;
+  private final long deinstrumentMaxNanos;
+  private final int retransformBatchSize;
+  private final long retransformPauseNanos;
+  private final boolean pinningDetection;
+  private final long pinningThresholdNanos;
+  private final int pinningMaxSites;
 
   private VTracerConfig(Builder builder) {
     this.enabled = builder.enabled;
@@ -45,6 +113,38 @@ public class VTracerConfig {
     this.outputDir = builder.outputDir;
     this.outputFormat = builder.outputFormat;
     this.reportIntervalSeconds = builder.reportIntervalSeconds;
+    this.virtualThreadMode = builder.virtualThreadMode;
+    this.collectorMode = builder.collectorMode;
+    this.minDurationNanos = builder.minDurationNanos;
+    this.packageMinDurations = new LinkedHashMap<>(builder.packageMinDurations);
+    this.overflowPolicy = builder.overflowPolicy;
+    this.spillFile =
+        builder.spillFile != null
+            ? builder.spillFile
+            : builder.outputDir.resolve("spill-" + ProcessHandle.current().pid() + ".bin");
+    this.spillSizeBytes = builder.spillSizeBytes;
+    this.jfrFile =
+        builder.jfrFile != null
+            ? builder.jfrFile
+            : builder.outputDir.resolve("vtracer-" + ProcessHandle.current().pid() + ".jfr");
+    this.jfrMaxSizeBytes = builder.jfrMaxSizeBytes;
+    this.jfrMaxAgeNanos = builder.jfrMaxAgeNanos;
+    this.engine = builder.engine;
+    this.samplingIntervalNanos = builder.samplingIntervalNanos;
+    this.hybridWarmupNanos = builder.hybridWarmupNanos;
+    this.hybridIntervalNanos = builder.hybridIntervalNanos;
+    this.hybridTopMethods = builder.hybridTopMethods;
+    this.analysisParallelism = builder.analysisParallelism;
+    this.profileWindows = new LinkedHashMap<>(builder.profileWindows);
+    this.profileSliceNodes = builder.profileSliceNodes;
+    this.deinstrumentEnabled = builder.deinstrumentEnabled;
+    this.deinstrumentMinCallRate = builder.deinstrumentMinCallRate;
+    this.deinstrumentMaxNanos = builder.deinstrumentMaxNanos;
+    this.retransformBatchSize = builder.retransformBatchSize;
+    this.retransformPauseNanos = builder.retransformPauseNanos;
+    this.pinningDetection = builder.pinningDetection;
+    this.pinningThresholdNanos = builder.pinningThresholdNanos;
+    this.pinningMaxSites = builder.pinningMaxSites;
   }
 
   /** Parse agent arguments Format: "key1=value1,key2=value2" */
@@ -73,6 +173,9 @@ public class VTracerConfig {
       if (args.containsKey("classExclude")) {
         builder.classExclude(args.get("classExclude"));
       }
+      if (args.containsKey("methodInclude")) {
+        builder.methodInclude(args.get("methodInclude"));
+      }
       if (args.containsKey("output")) {
         builder.outputDir(Paths.get(args.get("output")));
       }
@@ -82,6 +185,92 @@ public class VTracerConfig {
       if (args.containsKey("reportInterval")) {
         builder.reportIntervalSeconds(Integer.parseInt(args.get("reportInterval")));
       }
+      if (args.containsKey("virtualThreads")) {
+        builder.virtualThreadMode(Boolean.parseBoolean(args.get("virtualThreads")));
+      }
+      if (args.containsKey("collectorMode")) {
+        builder.collectorMode(CollectorMode.valueOf(args.get("collectorMode").toUpperCase()));
+      }
+      if (args.containsKey("minDuration")) {
+        builder.minDuration(TimeUtils.parseNanos(args.get("minDuration")));
+      }
+      if (args.containsKey("packageMinDuration")) {
+        // "pattern:duration;pattern:duration" - the last ':' splits, patterns are regexes
+        for (String rule : args.get("packageMinDuration").split(";")) {
+          int split = rule.lastIndexOf(':');
+          if (split > 0) {
+            builder.packageMinDuration(
+                rule.substring(0, split).trim(), TimeUtils.parseNanos(rule.substring(split + 1)));
+          }
+        }
+      }
+      if (args.containsKey("overflow")) {
+        builder.overflowPolicy(OverflowPolicy.valueOf(args.get("overflow").toUpperCase()));
+      }
+      if (args.containsKey("spillFile")) {
+        builder.spillFile(Paths.get(args.get("spillFile")));
+      }
+      if (args.containsKey("spillSize")) {
+        builder.spillSizeBytes(parseBytes(args.get("spillSize")));
+      }
+      if (args.containsKey("engine")) {
+        builder.engine(Engine.valueOf(args.get("engine").toUpperCase()));
+      }
+      if (args.containsKey("samplingInterval")) {
+        builder.samplingInterval(TimeUtils.parseNanos(args.get("samplingInterval")));
+      }
+      if (args.containsKey("hybridWarmup")) {
+        builder.hybridWarmup(TimeUtils.parseNanos(args.get("hybridWarmup")));
+      }
+      if (args.containsKey("hybridInterval")) {
+        builder.hybridInterval(TimeUtils.parseNanos(args.get("hybridInterval")));
+      }
+      if (args.containsKey("hybridTopMethods")) {
+        builder.hybridTopMethods(Integer.parseInt(args.get("hybridTopMethods")));
+      }
+      if (args.containsKey("analysisParallelism")) {
+        builder.analysisParallelism(Integer.parseInt(args.get("analysisParallelism")));
+      }
+      if (args.containsKey("profileWindows")) {
+        builder.profileWindows(parseWindows(args.get("profileWindows")));
+      }
+      if (args.containsKey("profileSliceNodes")) {
+        builder.profileSliceNodes(Integer.parseInt(args.get("profileSliceNodes")));
+      }
+      if (args.containsKey("jfrFile")) {
+        builder.jfrFile(Paths.get(args.get("jfrFile")));
+      }
+      if (args.containsKey("jfrMaxSize")) {
+        builder.jfrMaxSizeBytes(parseBytes(args.get("jfrMaxSize")));
+      }
+      if (args.containsKey("jfrMaxAge")) {
+        builder.jfrMaxAge(TimeUtils.parseNanos(args.get("jfrMaxAge")));
+      }
+      if (args.containsKey("retransformBatch")) {
+        builder.retransformBatchSize(Integer.parseInt(args.get("retransformBatch")));
+      }
+      if (args.containsKey("retransformPause")) {
+        builder.retransformPause(TimeUtils.parseNanos(args.get("retransformPause")));
+      }
+      if (args.containsKey("pinning")) {
+        builder.pinningDetection(Boolean.parseBoolean(args.get("pinning")));
+      }
+      if (args.containsKey("pinningThreshold")) {
+        builder.pinningThreshold(TimeUtils.parseNanos(args.get("pinningThreshold")));
+      }
+      if (args.containsKey("pinningMaxSites")) {
+        builder.pinningMaxSites(Integer.parseInt(args.get("pinningMaxSites")));
+      }
+      if (args.containsKey("deinstrument")) {
+        builder.deinstrument(Boolean.parseBoolean(args.get("deinstrument")));
+      }
+      if (args.containsKey("deinstrumentCallRate")) {
+        builder.deinstrumentMinCallRate(Double.parseDouble(args.get("deinstrumentCallRate")));
+      }
+      if (args.containsKey("deinstrumentMaxDuration")) {
+        builder.deinstrumentMaxDuration(
+            TimeUtils.parseNanos(args.get("deinstrumentMaxDuration")));
+      }
     }
 
     // Override with environment variables
@@ -103,6 +292,67 @@ public class VTracerConfig {
     return builder.build();
   }
 
+  /** Control command in agent args sent to an already loaded agent, or null */
+  public static String parseCommand(String agentArgs) {
+    return parseArgs(agentArgs).get("command");
+  }
+
+  /**
+   * Copy of this config with the instrumentation patterns from agent args replaced
+   *
+   * <p>Only {@code classInclude}, {@code classExclude} and {@code methodInclude} are read; a
+   * pattern that is absent stays as it is, an empty one is cleared.
+   */
+  public VTracerConfig withPatterns(String agentArgs) {
+    Map<String, String> args = parseArgs(agentArgs);
+    Builder builder = toBuilder();
+    if (args.containsKey("classInclude")) {
+      String pattern = args.get("classInclude");
+      builder.classIncludePattern = pattern.isEmpty() ? null : Pattern.compile(pattern);
+    }
+    if (args.containsKey("classExclude")) {
+      String pattern = args.get("classExclude");
+      builder.classExcludePattern = pattern.isEmpty() ? null : Pattern.compile(pattern);
+    }
+    if (args.containsKey("methodInclude")) {
+      String pattern = args.get("methodInclude");
+      builder.methodInclude(pattern.isEmpty() ? ".*" : pattern);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Parse profile windows such as "1m;5m;15m;1h" - each duration is also its window's name, and
+   * "none" means no windows
+   */
+  private static Map<String, Long> parseWindows(String windows) {
+    Map<String, Long> result = new LinkedHashMap<>();
+    for (String window : windows.split(";")) {
+      String name = window.trim();
+      if (!name.isEmpty() && !name.equalsIgnoreCase("none")) {
+        result.put(name, TimeUtils.parseNanos(name));
+      }
+    }
+    return result;
+  }
+
+  /** Parse a size such as "64m", "512k" or "1g" to bytes (no unit = bytes) */
+  private static long parseBytes(String size) {
+    String value = size.trim().toLowerCase();
+    long unit = 1;
+    if (value.endsWith("k")) {
+      unit = 1L << 10;
+    } else if (value.endsWith("m")) {
+      unit = 1L << 20;
+    } else if (value.endsWith("g")) {
+      unit = 1L << 30;
+    }
+    if (unit > 1) {
+      value = value.substring(0, value.length() - 1);
+    }
+    return Long.parseLong(value.trim()) * unit;
+  }
+
   private static Map<String, String> parseArgs(String args) {
     Map<String, String> result = new HashMap<>();
     if (args == null || args.isEmpty()) {
@@ -129,15 +379,9 @@ public class VTracerConfig {
     ElementMatcher.Junction<? super net.bytebuddy.description.type.TypeDescription> matcher = any();
 
     // Exclude agent classes and JDK classes
-    matcher =
-        matcher
-            .and(not(nameStartsWith("com.example.vtracer")))
-            .and(not(nameStartsWith("java.")))
-            .and(not(nameStartsWith("javax.")))
-            .and(not(nameStartsWith("sun.")))
-            .and(not(nameStartsWith("com.sun.")))
-            .and(not(nameStartsWith("jdk.")))
-            .and(not(nameStartsWith("net.bytebuddy.")));
+    for (String prefix : EXCLUDED_PACKAGES) {
+      matcher = matcher.and(not(nameStartsWith(prefix)));
+    }
 
     // Apply custom exclude pattern
     if (classExcludePattern != null) {
@@ -152,6 +396,22 @@ public class VTracerConfig {
     return matcher;
   }
 
+  /** True for agent and JDK classes, given a binary or internal (slash-separated) name */
+  public static boolean isExcludedPackage(String className) {
+    return EXCLUDED_PREFIXES.matchesPrefixOf(className);
+  }
+
+  /** Same decision as {@link #getClassMatcher()}, on a class name */
+  public boolean matchesClass(String className) {
+    if (isExcludedPackage(className)) {
+      return false;
+    }
+    if (classExcludePattern != null && classExcludePattern.matcher(className).matches()) {
+      return false;
+    }
+    return classIncludePattern == null || classIncludePattern.matcher(className).matches();
+  }
+
   /** Get ByteBuddy method matcher */
   public ElementMatcher.Junction<? super net.bytebuddy.description.method.MethodDescription>
       getMethodMatcher() {
@@ -159,7 +419,8 @@ public class VTracerConfig {
         .and(not(isAbstract()))
         .and(not(isNative()))
         .and(not(isSynthetic()))
-        .and(not(nameStartsWith("lambda$")));
+        .and(not(nameStartsWith("lambda$")))
+        .and(nameMatches(methodIncludePattern.pattern()));
   }
 
   // Getters
@@ -207,16 +468,200 @@ public class VTracerConfig {
     return reportIntervalSeconds;
   }
 
+  public boolean isVirtualThreadMode() {
+    return virtualThreadMode;
+  }
+
+  public CollectorMode getCollectorMode() {
+    return collectorMode;
+  }
+
+  /** Global minimum duration for a call to be recorded, 0 records everything */
+  public long getMinDurationNanos() {
+    return minDurationNanos;
+  }
+
+  /** Minimum duration for methods of the given class: first matching package rule, else global */
+  public long getMinDurationNanos(String className) {
+    for (Map.Entry<Pattern, Long> rule : packageMinDurations.entrySet()) {
+      if (rule.getKey().matcher(className).matches()) {
+        return rule.getValue();
+      }
+    }
+    return minDurationNanos;
+  }
+
+  public OverflowPolicy getOverflowPolicy() {
+    return overflowPolicy;
+  }
+
+  public Path getSpillFile() {
+    return spillFile;
+  }
+
+  public long getSpillSizeBytes() {
+    return spillSizeBytes;
+  }
+
+  /** Stop tracing methods that are called very often and finish almost immediately */
+  public boolean isDeinstrumentEnabled() {
+    return deinstrumentEnabled;
+  }
+
+  /** Estimated calls per second above which a method is considered hot */
+  public double getDeinstrumentMinCallRate() {
+    return deinstrumentMinCallRate;
+  }
+
+  /** p90 duration below which a hot method is considered trivial */
+  public long getDeinstrumentMaxNanos() {
+    return deinstrumentMaxNanos;
+  }
+
+  /** Classes per retransformation batch */
+  public int getRetransformBatchSize() {
+    return retransformBatchSize;
+  }
+
+  /** Pause between retransformation batches, so the application keeps running in between */
+  public long getRetransformPauseNanos() {
+    return retransformPauseNanos;
+  }
+
+  /** Stream JFR virtual thread pinning events */
+  public boolean isPinningDetection() {
+    return pinningDetection;
+  }
+
+  /** Pinnings shorter than this are not reported by the JVM */
+  public long getPinningThresholdNanos() {
+    return pinningThresholdNanos;
+  }
+
+  public int getPinningMaxSites() {
+    return pinningMaxSites;
+  }
+
+  public Engine getEngine() {
+    return engine;
+  }
+
+  /** Period between stack samples of each running thread (sampling engine) */
+  public long getSamplingIntervalNanos() {
+    return samplingIntervalNanos;
+  }
+
+  /** Stack sampling before the first hot-path selection (hybrid engine) */
+  public long getHybridWarmupNanos() {
+    return hybridWarmupNanos;
+  }
+
+  /** Period between hot-path re-selections (hybrid engine) */
+  public long getHybridIntervalNanos() {
+    return hybridIntervalNanos;
+  }
+
+  /** Methods selected by inclusive time, before their callees are added (hybrid engine) */
+  public int getHybridTopMethods() {
+    return hybridTopMethods;
+  }
+
+  /** Rolling profile windows by name, in listed order; empty when the profile store is off */
+  public Map<String, Long> getProfileWindows() {
+    return Collections.unmodifiableMap(profileWindows);
+  }
+
+  /** Call paths kept per time slice of a profile window */
+  public int getProfileSliceNodes() {
+    return profileSliceNodes;
+  }
+
+  /** Worker threads that build and fold large call trees; 1 keeps analysis on the flush thread */
+  public int getAnalysisParallelism() {
+    return analysisParallelism;
+  }
+
+  /** Recording written in JFR collector mode */
+  public Path getJfrFile() {
+    return jfrFile;
+  }
+
+  /** Disk the JFR recording may use before its oldest chunks are deleted */
+  public long getJfrMaxSizeBytes() {
+    return jfrMaxSizeBytes;
+  }
+
+  /** Age after which JFR chunks are deleted, 0 for no limit */
+  public long getJfrMaxAgeNanos() {
+    return jfrMaxAgeNanos;
+  }
+
+  /** True if any call can be filtered by duration */
+  public boolean hasMinDuration() {
+    if (minDurationNanos > 0) {
+      return true;
+    }
+    for (long nanos : packageMinDurations.values()) {
+      if (nanos > 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   // Builder
   public static Builder builder() {
     return new Builder();
   }
 
+  /** Builder preset with every value of this config */
+  public Builder toBuilder() {
+    Builder builder = new Builder();
+    builder.enabled = enabled;
+    builder.initialSampleRate = initialSampleRate;
+    builder.targetOverhead = targetOverhead;
+    builder.bufferSize = bufferSize;
+    builder.classIncludePattern = classIncludePattern;
+    builder.classExcludePattern = classExcludePattern;
+    builder.methodIncludePattern = methodIncludePattern;
+    builder.maxStackDepth = maxStackDepth;
+    builder.outputDir = outputDir;
+    builder.outputFormat = outputFormat;
+    builder.reportIntervalSeconds = reportIntervalSeconds;
+    builder.virtualThreadMode = virtualThreadMode;
+    builder.collectorMode = collectorMode;
+    builder.minDurationNanos = minDurationNanos;
+    builder.packageMinDurations.putAll(packageMinDurations);
+    builder.overflowPolicy = overflowPolicy;
+    builder.spillFile = spillFile;
+    builder.spillSizeBytes = spillSizeBytes;
+    builder.jfrFile = jfrFile;
+    builder.jfrMaxSizeBytes = jfrMaxSizeBytes;
+    builder.jfrMaxAgeNanos = jfrMaxAgeNanos;
+    builder.engine = engine;
+    builder.samplingIntervalNanos = samplingIntervalNanos;
+    builder.hybridWarmupNanos = hybridWarmupNanos;
+    builder.hybridIntervalNanos = hybridIntervalNanos;
+    builder.hybridTopMethods = hybridTopMethods;
+    builder.analysisParallelism = analysisParallelism;
+    builder.profileWindows(profileWindows);
+    builder.profileSliceNodes = profileSliceNodes;
+    builder.deinstrumentEnabled = deinstrumentEnabled;
+    builder.deinstrumentMinCallRate = deinstrumentMinCallRate;
+    builder.deinstrumentMaxNanos = deinstrumentMaxNanos;
+    builder.retransformBatchSize = retransformBatchSize;
+    builder.retransformPauseNanos = retransformPauseNanos;
+    builder.pinningDetection = pinningDetection;
+    builder.pinningThresholdNanos = pinningThresholdNanos;
+    builder.pinningMaxSites = pinningMaxSites;
+    return builder;
+  }
+
   public static class Builder {
     private boolean enabled = true;
     private double initialSampleRate = 0.05; // 5%
     private double targetOverhead = 0.02; // 2%
-    private int bufferSize = 65536; // Power of 2
+    private int bufferSize = 8192; // Power of 2, per thread
     private Pattern classIncludePattern = null; // null = all
     private Pattern classExcludePattern = null;
     private Pattern methodIncludePattern = Pattern.compile(".*");
@@ -224,6 +669,32 @@ public class VTracerConfig {
     private Path outputDir = Paths.get(System.getProperty("java.io.tmpdir"), "vtracer");
     private OutputFormat outputFormat = OutputFormat.FOLDED;
     private int reportIntervalSeconds = 60;
+    private boolean virtualThreadMode = false;
+    private CollectorMode collectorMode = CollectorMode.EVENTS;
+    private long minDurationNanos = 0; // Record every call
+    private final Map<Pattern, Long> packageMinDurations = new LinkedHashMap<>();
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+    private Path spillFile = null; // null = in the output dir
+    private long spillSizeBytes = 256L << 20; // Split in two halves
+    private Path jfrFile = null; // null = in the output dir
+    private long jfrMaxSizeBytes = 256L << 20; // Oldest chunks deleted beyond this
+    private long jfrMaxAgeNanos = 0; // No age limit
+    private Engine engine = Engine.INSTRUMENTATION;
+    private long samplingIntervalNanos = 10_000_000;
+    private long hybridWarmupNanos = 30_000_000_000L;
+    private long hybridIntervalNanos = 60_000_000_000L;
+    private int hybridTopMethods = 20;
+    private int analysisParallelism = Math.min(4, Runtime.getRuntime().availableProcessors());
+    private final Map<String, Long> profileWindows = new LinkedHashMap<>(); // Store off
+    private int profileSliceNodes = 4096;
+    private boolean deinstrumentEnabled = false; // Opt-in: changes which methods are traced
+    private double deinstrumentMinCallRate = 100_000; // Calls per second
+    private long deinstrumentMaxNanos = 500;
+    private int retransformBatchSize = 1000; // Each call pays a fixed safepoint cost
+    private long retransformPauseNanos = 5_000_000; // 5ms
+    private boolean pinningDetection = false; // Opt-in: starts a JFR stream
+    private long pinningThresholdNanos = 20_000_000; // JFR default for the event
+    private int pinningMaxSites = 256;
 
     public Builder enabled(boolean enabled) {
       this.enabled = enabled;
@@ -247,7 +718,7 @@ public class VTracerConfig {
     }
 
     public Builder bufferSize(int size) {
-      // Must be power of 2 for ring buffer
+      // Must be power of 2 for the per-thread ring buffers
       if (size <= 0 || (size & (size - 1)) != 0) {
         throw new IllegalArgumentException("Buffer size must be power of 2");
       }
@@ -290,7 +761,230 @@ public class VTracerConfig {
       return this;
     }
 
+    /** Lease pooled collector state to virtual threads instead of keeping it per thread */
+    public Builder virtualThreadMode(boolean enabled) {
+      this.virtualThreadMode = enabled;
+      return this;
+    }
+
+    public Builder collectorMode(CollectorMode mode) {
+      this.collectorMode = mode;
+      return this;
+    }
+
+    /**
+     * Calls shorter than this are not recorded; their time stays in the caller's self time. Not
+     * supported in aggregate mode, which counts every call
+     */
+    public Builder minDuration(long nanos) {
+      if (nanos < 0) {
+        throw new IllegalArgumentException("Minimum duration must not be negative");
+      }
+      this.minDurationNanos = nanos;
+      return this;
+    }
+
+    /** Minimum duration for classes matching {@code classPattern}, overriding the global one */
+    public Builder packageMinDuration(String classPattern, long nanos) {
+      if (nanos < 0) {
+        throw new IllegalArgumentException("Minimum duration must not be negative");
+      }
+      this.packageMinDurations.put(Pattern.compile(classPattern), nanos);
+      return this;
+    }
+
+    /** Record every call: clears the global and per-package minimum durations */
+    public Builder noMinDuration() {
+      this.minDurationNanos = 0;
+      this.packageMinDurations.clear();
+      return this;
+    }
+
+    /** Spill full rings to a memory-mapped file instead of dropping (capture sessions) */
+    public Builder overflowPolicy(OverflowPolicy policy) {
+      this.overflowPolicy = policy;
+      return this;
+    }
+
+    public Builder spillFile(Path file) {
+      this.spillFile = file;
+      return this;
+    }
+
+    public Builder engine(Engine engine) {
+      this.engine = engine;
+      return this;
+    }
+
+    public Builder samplingInterval(long nanos) {
+      // JFR samples at most once per millisecond
+      if (nanos < 1_000_000) {
+        throw new IllegalArgumentException("Sampling interval must be at least 1ms");
+      }
+      this.samplingIntervalNanos = nanos;
+      return this;
+    }
+
+    public Builder hybridWarmup(long nanos) {
+      if (nanos <= 0) {
+        throw new IllegalArgumentException("Hybrid warm-up must be positive");
+      }
+      this.hybridWarmupNanos = nanos;
+      return this;
+    }
+
+    public Builder hybridInterval(long nanos) {
+      if (nanos <= 0) {
+        throw new IllegalArgumentException("Hybrid interval must be positive");
+      }
+      this.hybridIntervalNanos = nanos;
+      return this;
+    }
+
+    public Builder hybridTopMethods(int methods) {
+      if (methods <= 0) {
+        throw new IllegalArgumentException("Hybrid top methods must be positive");
+      }
+      this.hybridTopMethods = methods;
+      return this;
+    }
+
+    public Builder analysisParallelism(int threads) {
+      if (threads <= 0) {
+        throw new IllegalArgumentException("Analysis parallelism must be positive");
+      }
+      this.analysisParallelism = threads;
+      return this;
+    }
+
+    /**
+     * Replace the rolling profile windows (none by default); an empty map turns the profile store
+     * off
+     *
+     * <p>Each window holds 10 slices of up to {@link #profileSliceNodes(int)} trie nodes of about
+     * 100 bytes, so "1m;5m;15m;1h" with the default 4096 nodes can reach some 16MB of heap. In the
+     * ring collector modes each flush with windows also folds its tree into a flame graph, shared
+     * with the flame-graph reporter.
+     */
+    public Builder profileWindows(Map<String, Long> windows) {
+      for (long nanos : windows.values()) {
+        if (nanos <= 0) {
+          throw new IllegalArgumentException("Profile windows must be positive");
+        }
+      }
+      this.profileWindows.clear();
+      this.profileWindows.putAll(windows);
+      return this;
+    }
+
+    public Builder profileSliceNodes(int nodes) {
+      if (nodes <= 0) {
+        throw new IllegalArgumentException("Profile slice nodes must be positive");
+      }
+      this.profileSliceNodes = nodes;
+      return this;
+    }
+
+    public Builder jfrFile(Path file) {
+      this.jfrFile = file;
+      return this;
+    }
+
+    public Builder jfrMaxSizeBytes(long bytes) {
+      if (bytes <= 0) {
+        throw new IllegalArgumentException("JFR max size must be positive");
+      }
+      this.jfrMaxSizeBytes = bytes;
+      return this;
+    }
+
+    /** @param nanos 0 for no age limit */
+    public Builder jfrMaxAge(long nanos) {
+      if (nanos < 0) {
+        throw new IllegalArgumentException("JFR max age must not be negative");
+      }
+      this.jfrMaxAgeNanos = nanos;
+      return this;
+    }
+
+    public Builder spillSizeBytes(long bytes) {
+      if (bytes <= 0 || bytes > 1L << 30) {
+        throw new IllegalArgumentException("Spill size must be between 1 byte and 1GB");
+      }
+      this.spillSizeBytes = bytes;
+      return this;
+    }
+
+    /**
+     * Stop tracing hot, very short methods (off by default)
+     *
+     * <p>Excluded methods vanish from later profiles and their classes are retransformed while
+     * the application runs, so it is opt-in.
+     */
+    public Builder deinstrument(boolean enabled) {
+      this.deinstrumentEnabled = enabled;
+      return this;
+    }
+
+    public Builder deinstrumentMinCallRate(double callsPerSecond) {
+      if (callsPerSecond <= 0) {
+        throw new IllegalArgumentException("De-instrumentation call rate must be positive");
+      }
+      this.deinstrumentMinCallRate = callsPerSecond;
+      return this;
+    }
+
+    public Builder deinstrumentMaxDuration(long nanos) {
+      if (nanos < 0) {
+        throw new IllegalArgumentException("De-instrumentation duration must not be negative");
+      }
+      this.deinstrumentMaxNanos = nanos;
+      return this;
+    }
+
+    public Builder retransformBatchSize(int classes) {
+      if (classes <= 0) {
+        throw new IllegalArgumentException("Retransform batch size must be positive");
+      }
+      this.retransformBatchSize = classes;
+      return this;
+    }
+
+    public Builder retransformPause(long nanos) {
+      if (nanos < 0) {
+        throw new IllegalArgumentException("Retransform pause must not be negative");
+      }
+      this.retransformPauseNanos = nanos;
+      return this;
+    }
+
+    public Builder pinningDetection(boolean enabled) {
+      this.pinningDetection = enabled;
+      return this;
+    }
+
+    public Builder pinningThreshold(long nanos) {
+      if (nanos < 0) {
+        throw new IllegalArgumentException("Pinning threshold must not be negative");
+      }
+      this.pinningThresholdNanos = nanos;
+      return this;
+    }
+
+    public Builder pinningMaxSites(int sites) {
+      if (sites <= 0) {
+        throw new IllegalArgumentException("Pinning site limit must be positive");
+      }
+      this.pinningMaxSites = sites;
+      return this;
+    }
+
     public VTracerConfig build() {
+      if (collectorMode == CollectorMode.AGGREGATE
+          && (minDurationNanos > 0
+              || packageMinDurations.values().stream().anyMatch(nanos -> nanos > 0))) {
+        throw new IllegalArgumentException("Minimum duration is not supported in aggregate mode");
+      }
       return new VTracerConfig(this);
     }
   }
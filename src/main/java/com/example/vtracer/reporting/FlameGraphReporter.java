@@ -4,31 +4,45 @@ import com.example.vtracer.analysis.calltree.CallTreeAnalyzer.CallTree;
 import com.example.vtracer.analysis.flamegraph.builder.FlameGraphBuilder;
 import com.example.vtracer.analysis.flamegraph.export.FoldedStackExporter;
 import com.example.vtracer.analysis.flamegraph.model.FlameGraph;
+import com.example.vtracer.analysis.flamegraph.model.FlameNode;
 import com.example.vtracer.analysis.flamegraph.model.ThreadFlameGraph;
+import com.example.vtracer.tracing.model.MethodRegistry;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Flame graph reporter
  *
- * <p>Exports call tree as folded stack format for flame graph visualization
+ * <p>Exports call tree as folded stack format for flame graph visualization. Aggregated profiles
+ * carry no thread identity and are always written merged.
  */
 public class FlameGraphReporter implements Reporter {
 
   private final Path outputDir;
+  private final MethodRegistry registry;
   private final boolean perThread;
+  // Null to fold on the reporting thread only
+  private final ForkJoinPool pool;
 
-  public FlameGraphReporter(Path outputDir) {
-    this(outputDir, false);
+  public FlameGraphReporter(Path outputDir, MethodRegistry registry) {
+    this(outputDir, registry, false, null);
   }
 
-  public FlameGraphReporter(Path outputDir, boolean perThread) {
+  public FlameGraphReporter(Path outputDir, MethodRegistry registry, boolean perThread) {
+    this(outputDir, registry, perThread, null);
+  }
+
+  public FlameGraphReporter(
+      Path outputDir, MethodRegistry registry, boolean perThread, ForkJoinPool pool) {
     this.outputDir = outputDir;
+    this.registry = registry;
     this.perThread = perThread;
+    this.pool = pool;
   }
 
   @Override
@@ -38,6 +52,17 @@ public class FlameGraphReporter implements Reporter {
 
   @Override
   public void reportSync(CallTree tree) {
+    reportSync(tree, null);
+  }
+
+  @Override
+  public CompletableFuture<Void> reportAsync(CallTree tree, FlameGraph flameGraph) {
+    return CompletableFuture.runAsync(() -> reportSync(tree, flameGraph));
+  }
+
+  /** The merged graph reuses {@code flameGraph} if given; per-thread graphs are always built */
+  @Override
+  public void reportSync(CallTree tree, FlameGraph flameGraph) {
     try {
       Files.createDirectories(outputDir);
 
@@ -45,7 +70,7 @@ public class FlameGraphReporter implements Reporter {
 
       if (perThread) {
         // Generate per-thread flame graphs
-        ThreadFlameGraph threadFg = FlameGraphBuilder.buildPerThread(tree);
+        ThreadFlameGraph threadFg = FlameGraphBuilder.buildPerThread(tree, registry);
 
         for (Map.Entry<Long, FlameGraph> entry : threadFg.getFlameGraphsByThread().entrySet()) {
           long threadId = entry.getKey();
@@ -67,10 +92,11 @@ public class FlameGraphReporter implements Reporter {
 
       } else {
         // Generate single merged flame graph
-        FlameGraph flameGraph = FlameGraphBuilder.build(tree);
+        FlameGraph merged =
+            flameGraph != null ? flameGraph : FlameGraphBuilder.build(tree, registry, pool);
         Path outputPath = outputDir.resolve("flamegraph-" + timestamp + ".folded");
 
-        FoldedStackExporter.export(flameGraph, outputPath);
+        FoldedStackExporter.export(merged, outputPath);
         System.out.println("[VTracer] Flame graph written to: " + outputPath);
         System.out.println(
             "[VTracer] Generate SVG with: flamegraph.pl " + outputPath + " > flamegraph.svg");
@@ -80,4 +106,23 @@ public class FlameGraphReporter implements Reporter {
       System.err.println("[VTracer] Failed to write flame graph: " + e.getMessage());
     }
   }
+
+  @Override
+  public CompletableFuture<Void> reportAsync(FlameNode root) {
+    return CompletableFuture.runAsync(() -> reportSync(root));
+  }
+
+  @Override
+  public void reportSync(FlameNode root, String name) {
+    try {
+      String timestamp = Instant.now().toString().replace(":", "-");
+      Path outputPath = outputDir.resolve(name + "-" + timestamp + ".folded");
+
+      FoldedStackExporter.export(FlameGraphBuilder.build(root, registry), outputPath);
+      System.out.println("[VTracer] Aggregated flame graph written to: " + outputPath);
+
+    } catch (IOException e) {
+      System.err.println("[VTracer] Failed to write flame graph: " + e.getMessage());
+    }
+  }
 }
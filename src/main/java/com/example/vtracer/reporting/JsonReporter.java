@@ -1,25 +1,47 @@
 package com.example.vtracer.reporting;
 
 import com.example.vtracer.analysis.calltree.CallTreeAnalyzer.CallTree;
+import com.example.vtracer.analysis.calltree.SelfTimeCalculator;
+import com.example.vtracer.analysis.flamegraph.model.FlameNode;
+import com.example.vtracer.tracing.model.LatencyHistogram;
+import com.example.vtracer.tracing.model.MethodLatencies;
+import com.example.vtracer.tracing.model.MethodRegistry;
+import com.example.vtracer.tracing.pinning.PinningStats;
 import com.example.vtracer.util.TimeUtils;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 /**
  * JSON reporter for call trees
  *
- * <p>Exports call tree in JSON format for custom analysis
+ * <p>Exports call tree in JSON format for custom analysis, followed by per-method latency
+ * percentiles and virtual thread pinning sites (both cumulative since startup)
  */
 public class JsonReporter implements Reporter {
 
   private final Path outputDir;
+  private final MethodRegistry registry;
+  private final MethodLatencies latencies;
+  // Null when pinning detection is off
+  private final PinningStats pinnings;
+  private final SelfTimeCalculator selfTimeCalculator;
 
-  public JsonReporter(Path outputDir) {
+  public JsonReporter(
+      Path outputDir,
+      MethodRegistry registry,
+      MethodLatencies latencies,
+      PinningStats pinnings,
+      SelfTimeCalculator selfTimeCalculator) {
     this.outputDir = outputDir;
+    this.registry = registry;
+    this.latencies = latencies;
+    this.pinnings = pinnings;
+    this.selfTimeCalculator = selfTimeCalculator;
   }
 
   @Override
@@ -34,6 +56,7 @@ public class JsonReporter implements Reporter {
 
       String timestamp = Instant.now().toString().replace(":", "-");
       Path outputPath = outputDir.resolve("calltree-" + timestamp + ".json");
+      selfTimeCalculator.calculate(tree);
 
       try (BufferedWriter writer = Files.newBufferedWriter(outputPath)) {
         writeJson(writer, tree);
@@ -46,6 +69,45 @@ public class JsonReporter implements Reporter {
     }
   }
 
+  @Override
+  public CompletableFuture<Void> reportAsync(FlameNode root) {
+    return CompletableFuture.runAsync(() -> reportSync(root));
+  }
+
+  @Override
+  public void reportSync(FlameNode root, String name) {
+    try {
+      Files.createDirectories(outputDir);
+
+      String timestamp = Instant.now().toString().replace(":", "-");
+      Path outputPath = outputDir.resolve(name + "-" + timestamp + ".json");
+
+      try (BufferedWriter writer = Files.newBufferedWriter(outputPath)) {
+        writer.write("{\n");
+        writer.write("  \"paths\": [\n");
+
+        boolean first = true;
+        for (FlameNode child : root.getChildren()) {
+          if (!first) {
+            writer.write(",\n");
+          }
+          writeProfileNode(writer, child, 2);
+          first = false;
+        }
+
+        writer.write("\n  ],\n");
+        writeLatencies(writer);
+        writePinning(writer);
+        writer.write("}\n");
+      }
+
+      System.out.println("[VTracer] JSON profile written to: " + outputPath);
+
+    } catch (IOException e) {
+      System.err.println("[VTracer] Failed to write JSON profile: " + e.getMessage());
+    }
+  }
+
   private void writeJson(BufferedWriter writer, CallTree tree) throws IOException {
     writer.write("{\n");
     writer.write("  \"roots\": [\n");
@@ -59,18 +121,110 @@ public class JsonReporter implements Reporter {
       first = false;
     }
 
-    writer.write("\n  ]\n");
+    writer.write("\n  ],\n");
+    writeLatencies(writer);
+    writePinning(writer);
     writer.write("}\n");
   }
 
+  private void writeLatencies(BufferedWriter writer) throws IOException {
+    writer.write("  \"latencies\": [\n");
+
+    boolean first = true;
+    for (int methodId = 0; methodId < latencies.capacity(); methodId++) {
+      LatencyHistogram histogram = latencies.get(methodId);
+      if (histogram == null) {
+        continue;
+      }
+      LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+      if (!first) {
+        writer.write(",\n");
+      }
+      writer.write(
+          "    {\"method\": \""
+              + escapeJson(registry.getSignature(methodId))
+              + "\", \"count\": "
+              + snapshot.getCount()
+              + ", \"p50Ns\": "
+              + snapshot.getValueAtPercentile(50.0)
+              + ", \"p90Ns\": "
+              + snapshot.getValueAtPercentile(90.0)
+              + ", \"p99Ns\": "
+              + snapshot.getValueAtPercentile(99.0)
+              + ", \"p999Ns\": "
+              + snapshot.getValueAtPercentile(99.9)
+              + ", \"maxNs\": "
+              + snapshot.getMax()
+              + "}");
+      first = false;
+    }
+
+    writer.write("\n  ]");
+  }
+
+  /** Closes the previous section, then writes the pinning sites if detection is on */
+  private void writePinning(BufferedWriter writer) throws IOException {
+    if (pinnings == null) {
+      writer.write("\n");
+      return;
+    }
+    writer.write(",\n");
+    writer.write("  \"pinningOverflow\": " + pinnings.getOverflowCount() + ",\n");
+    writer.write("  \"pinning\": [\n");
+
+    List<String> bucketNames = PinningStats.getBucketNames();
+    boolean first = true;
+    for (PinningStats.Site site : pinnings.snapshot()) {
+      if (!first) {
+        writer.write(",\n");
+      }
+      int methodId = site.getMethodId();
+      StringBuilder buckets = new StringBuilder();
+      long[] counts = site.getBuckets();
+      for (int i = 0; i < counts.length; i++) {
+        if (i > 0) {
+          buckets.append(", ");
+        }
+        buckets.append('"').append(bucketNames.get(i)).append("\": ").append(counts[i]);
+      }
+      writer.write(
+          "    {\"type\": \"virtual_thread_pinning\", \"method\": \""
+              + (methodId >= 0 ? escapeJson(registry.getSignature(methodId)) : "")
+              + "\", \"site\": \""
+              + escapeJson(site.getFrames())
+              + "\", \"lastThread\": \""
+              + escapeJson(site.getLastThread())
+              + "\", \"count\": "
+              + site.getCount()
+              + ", \"totalNs\": "
+              + site.getTotalNanos()
+              + ", \"maxNs\": "
+              + site.getMaxNanos()
+              + ", \"durations\": {"
+              + buckets
+              + "}}");
+      first = false;
+    }
+
+    writer.write("\n  ]\n");
+  }
+
   private void writeNode(BufferedWriter writer, CallTree.Node node, int indent) throws IOException {
 
     String indentStr = " ".repeat(indent);
+    int methodId = node.getMethodId();
 
     writer.write(indentStr + "{\n");
-    writer.write(indentStr + "  \"method\": \"" + escapeJson(node.getMethodSignature()) + "\",\n");
-    writer.write(indentStr + "  \"className\": \"" + escapeJson(node.getClassName()) + "\",\n");
-    writer.write(indentStr + "  \"methodName\": \"" + escapeJson(node.getMethodName()) + "\",\n");
+    writer.write(
+        indentStr + "  \"method\": \"" + escapeJson(registry.getSignature(methodId)) + "\",\n");
+    writer.write(
+        indentStr + "  \"className\": \"" + escapeJson(registry.getClassName(methodId)) + "\",\n");
+    writer.write(
+        indentStr
+            + "  \"methodName\": \""
+            + escapeJson(registry.getMethodName(methodId))
+            + "\",\n");
     writer.write(indentStr + "  \"threadId\": " + node.getThreadId() + ",\n");
     writer.write(indentStr + "  \"startTime\": " + node.getStartTime() + ",\n");
     writer.write(indentStr + "  \"endTime\": " + node.getEndTime() + ",\n");
@@ -95,6 +249,32 @@ public class JsonReporter implements Reporter {
     writer.write(indentStr + "}");
   }
 
+  private void writeProfileNode(BufferedWriter writer, FlameNode node, int indent)
+      throws IOException {
+
+    String indentStr = " ".repeat(indent);
+    String signature = registry.getSignature(node.getMethodId());
+
+    writer.write(indentStr + "{\n");
+    writer.write(indentStr + "  \"method\": \"" + escapeJson(signature) + "\",\n");
+    writer.write(indentStr + "  \"calls\": " + node.getCallCount() + ",\n");
+    writer.write(indentStr + "  \"totalTimeNs\": " + node.getTotalTime() + ",\n");
+    writer.write(indentStr + "  \"selfTimeNs\": " + node.getSelfTime() + ",\n");
+    writer.write(indentStr + "  \"children\": [\n");
+
+    boolean first = true;
+    for (FlameNode child : node.getChildren()) {
+      if (!first) {
+        writer.write(",\n");
+      }
+      writeProfileNode(writer, child, indent + 2);
+      first = false;
+    }
+
+    writer.write("\n" + indentStr + "  ]\n");
+    writer.write(indentStr + "}");
+  }
+
   private String escapeJson(String str) {
     if (str == null) {
       return "";
@@ -1,9 +1,15 @@
 package com.example.vtracer.reporting;
 
 import com.example.vtracer.analysis.calltree.CallTreeAnalyzer.CallTree;
+import com.example.vtracer.analysis.flamegraph.model.FlameGraph;
+import com.example.vtracer.analysis.flamegraph.model.FlameNode;
 import java.util.concurrent.CompletableFuture;
 
-/** Interface for reporting call tree results */
+/**
+ * Interface for reporting call tree results
+ *
+ * <p>Call trees arrive with total times only; each reporter derives the self times it needs.
+ */
 public interface Reporter {
 
   /** Report asynchronously (non-blocking) */
@@ -11,4 +17,37 @@ public interface Reporter {
 
   /** Report synchronously (blocking) */
   void reportSync(CallTree tree);
+
+  /**
+   * Report asynchronously, reusing {@code flameGraph} instead of folding the tree again
+   *
+   * @param flameGraph the tree already folded, or null
+   */
+  default CompletableFuture<Void> reportAsync(CallTree tree, FlameGraph flameGraph) {
+    return reportAsync(tree);
+  }
+
+  /**
+   * Report synchronously, reusing {@code flameGraph} instead of folding the tree again
+   *
+   * @param flameGraph the tree already folded, or null
+   */
+  default void reportSync(CallTree tree, FlameGraph flameGraph) {
+    reportSync(tree);
+  }
+
+  /** Report an aggregated profile asynchronously - {@code root} is a synthetic node */
+  CompletableFuture<Void> reportAsync(FlameNode root);
+
+  /** Report an aggregated profile synchronously - {@code root} is a synthetic node */
+  default void reportSync(FlameNode root) {
+    reportSync(root, "profile");
+  }
+
+  /**
+   * Report an aggregated profile synchronously
+   *
+   * @param name start of the output file name, before the timestamp
+   */
+  void reportSync(FlameNode root, String name);
 }
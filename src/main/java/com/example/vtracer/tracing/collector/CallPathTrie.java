@@ -0,0 +1,182 @@
+package com.example.vtracer.tracing.collector;
+
+import java.util.Arrays;
+
+/**
+ * Per-thread call-path trie updated in place on every exit (aggregate mode)
+ *
+ * <p>Each node is one distinct call path, identified by its method ID and parent node, and holds
+ * call count and self time; a path's total time is the self time of its subtree, so it is not kept.
+ * Nodes live in parallel primitive arrays; node 0 is the synthetic root. Memory grows with the
+ * number of distinct paths, never with call volume.
+ *
+ * <p>Only the owning thread writes. The background merge reads concurrently: a node becomes visible
+ * once {@link #size()} covers it, and counters may lag by the calls in flight. The merge keeps its
+ * own copy of what it already reported so every snapshot is a delta.
+ */
+final class CallPathTrie {
+
+  static final int ROOT = 0;
+
+  private static final int NONE = -1;
+  private static final int INITIAL_NODES = 256;
+  private static final int INITIAL_DEPTH = 64;
+
+  // Null for pooled tries, which are never retired
+  private final Thread owner;
+
+  private int[] methodIds;
+  private int[] parents;
+  private int[] firstChildren;
+  private int[] nextSiblings;
+  private long[] calls;
+  private long[] selfTimes;
+  // Written last when a node is added, read first by the merge
+  private volatile int size;
+
+  // Producer cursor: current node and time spent in completed children, per open frame
+  private int current;
+  private int depth;
+  private long[] childTimes;
+
+  // Consumer side: counters already reported, indexed like the nodes
+  private long[] reportedCalls;
+  private long[] reportedSelfTimes;
+
+  CallPathTrie(Thread owner) {
+    this.owner = owner;
+    this.methodIds = new int[INITIAL_NODES];
+    this.parents = new int[INITIAL_NODES];
+    this.firstChildren = new int[INITIAL_NODES];
+    this.nextSiblings = new int[INITIAL_NODES];
+    this.calls = new long[INITIAL_NODES];
+    this.selfTimes = new long[INITIAL_NODES];
+    this.childTimes = new long[INITIAL_DEPTH];
+    this.reportedCalls = new long[0];
+    this.reportedSelfTimes = new long[0];
+
+    methodIds[ROOT] = NONE;
+    parents[ROOT] = NONE;
+    firstChildren[ROOT] = NONE;
+    nextSiblings[ROOT] = NONE;
+    this.current = ROOT;
+    this.depth = 0;
+    this.size = 1;
+  }
+
+  /** Move to the child path for {@code methodId}, creating it on first use (owner only) */
+  void enter(int methodId) {
+    int child = firstChildren[current];
+    while (child != NONE && methodIds[child] != methodId) {
+      child = nextSiblings[child];
+    }
+    if (child == NONE) {
+      child = addNode(current, methodId);
+    }
+
+    if (depth == childTimes.length) {
+      childTimes = Arrays.copyOf(childTimes, depth * 2);
+    }
+    childTimes[depth++] = 0;
+    current = child;
+  }
+
+  /** Account the call at the cursor and move back to its caller (owner only) */
+  void exit(long duration) {
+    long childTime = childTimes[--depth];
+    calls[current]++;
+    selfTimes[current] += Math.max(0, duration - childTime);
+    if (depth > 0) {
+      childTimes[depth - 1] += duration;
+    }
+    current = parents[current];
+  }
+
+  private int addNode(int parent, int methodId) {
+    int node = size;
+    if (node == methodIds.length) {
+      int newCapacity = node * 2;
+      methodIds = Arrays.copyOf(methodIds, newCapacity);
+      parents = Arrays.copyOf(parents, newCapacity);
+      firstChildren = Arrays.copyOf(firstChildren, newCapacity);
+      nextSiblings = Arrays.copyOf(nextSiblings, newCapacity);
+      calls = Arrays.copyOf(calls, newCapacity);
+      selfTimes = Arrays.copyOf(selfTimes, newCapacity);
+    }
+
+    methodIds[node] = methodId;
+    parents[node] = parent;
+    firstChildren[node] = NONE;
+    nextSiblings[node] = firstChildren[parent];
+    firstChildren[parent] = node;
+
+    // Publish after the node is complete
+    size = node + 1;
+    return node;
+  }
+
+  /** Nodes published so far, root included */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Snapshot the counters gained since the previous call into {@code out} (consumer only)
+   *
+   * <p>A parent always has a lower index than its children.
+   *
+   * @return number of nodes in the snapshot
+   */
+  int drainTo(Snapshot out) {
+    int n = size;
+    // Array references read after size are at least as new as that size
+    int[] nodeMethodIds = methodIds;
+    int[] nodeParents = parents;
+    long[] nodeCalls = calls;
+    long[] nodeSelfTimes = selfTimes;
+
+    if (reportedCalls.length < n) {
+      reportedCalls = Arrays.copyOf(reportedCalls, n);
+      reportedSelfTimes = Arrays.copyOf(reportedSelfTimes, n);
+    }
+    out.ensureCapacity(n);
+
+    for (int i = 0; i < n; i++) {
+      long c = nodeCalls[i];
+      long self = nodeSelfTimes[i];
+
+      out.methodIds[i] = nodeMethodIds[i];
+      out.parents[i] = nodeParents[i];
+      out.calls[i] = c - reportedCalls[i];
+      out.selfTimes[i] = self - reportedSelfTimes[i];
+
+      reportedCalls[i] = c;
+      reportedSelfTimes[i] = self;
+    }
+    return n;
+  }
+
+  /** True once the owning thread has terminated - a final drain then sees every update */
+  boolean isRetired() {
+    return owner != null && !owner.isAlive();
+  }
+
+  /** Reusable consumer-side copy of one trie */
+  static final class Snapshot {
+    int[] methodIds = new int[INITIAL_NODES];
+    int[] parents = new int[INITIAL_NODES];
+    long[] calls = new long[INITIAL_NODES];
+    long[] selfTimes = new long[INITIAL_NODES];
+
+    private void ensureCapacity(int required) {
+      if (required <= methodIds.length) {
+        return;
+      }
+      int newCapacity = Math.max(required, methodIds.length * 2);
+      methodIds = Arrays.copyOf(methodIds, newCapacity);
+      parents = Arrays.copyOf(parents, newCapacity);
+      calls = Arrays.copyOf(calls, newCapacity);
+      selfTimes = Arrays.copyOf(selfTimes, newCapacity);
+    }
+  }
+}
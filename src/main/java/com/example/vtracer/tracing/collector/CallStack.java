@@ -0,0 +1,102 @@
+package com.example.vtracer.tracing.collector;
+
+import java.util.Arrays;
+
+/**
+ * Per-thread call stack of primitive frames
+ *
+ * <p>Frames live in parallel arrays (method ID, start timestamp) that grow only when a deeper
+ * stack is seen, so push and pop allocate nothing in steady state. Memory follows the deepest
+ * stack the thread reached, not the number of registered methods. A recursive call is simply a
+ * deeper frame of the same method, so recursion needs no bookkeeping of its own.
+ *
+ * <p>A frame is pinned once it is certain to be recorded, whatever its own duration - used by
+ * latency-threshold filtering so a recorded call always has its callers recorded too.
+ */
+final class CallStack {
+
+  /** Method ID of a placeholder frame pushed past the depth limit */
+  static final int NO_OP = -1;
+
+  private static final int INITIAL_DEPTH = 64;
+
+  private int[] methodIds;
+  private long[] startTimes;
+  private boolean[] pinned;
+  private int depth;
+
+  CallStack() {
+    this.methodIds = new int[INITIAL_DEPTH];
+    this.startTimes = new long[INITIAL_DEPTH];
+    this.pinned = new boolean[INITIAL_DEPTH];
+    this.depth = 0;
+  }
+
+  void push(int methodId, long startTime) {
+    if (depth == methodIds.length) {
+      grow();
+    }
+    methodIds[depth] = methodId;
+    startTimes[depth] = startTime;
+    pinned[depth] = false;
+    depth++;
+  }
+
+  void pushNoOp() {
+    if (depth == methodIds.length) {
+      grow();
+    }
+
+    methodIds[depth] = NO_OP;
+    startTimes[depth] = 0;
+    pinned[depth] = false;
+    depth++;
+  }
+
+  private void grow() {
+    methodIds = Arrays.copyOf(methodIds, depth * 2);
+    startTimes = Arrays.copyOf(startTimes, depth * 2);
+    pinned = Arrays.copyOf(pinned, depth * 2);
+  }
+
+  /** Method ID of the innermost frame - stack must not be empty */
+  int peekMethodId() {
+    return methodIds[depth - 1];
+  }
+
+  /** Start timestamp of the innermost frame - stack must not be empty */
+  long peekStartTime() {
+    return startTimes[depth - 1];
+  }
+
+  /** Method ID of the frame at {@code index} (0 = outermost) */
+  int methodIdAt(int index) {
+    return methodIds[index];
+  }
+
+  /** Start timestamp of the frame at {@code index} (0 = outermost) */
+  long startTimeAt(int index) {
+    return startTimes[index];
+  }
+
+  boolean isPinned(int index) {
+    return pinned[index];
+  }
+
+  void pin(int index) {
+    pinned[index] = true;
+  }
+
+  /** Remove the innermost frame - stack must not be empty */
+  void pop() {
+    depth--;
+  }
+
+  int depth() {
+    return depth;
+  }
+
+  boolean isEmpty() {
+    return depth == 0;
+  }
+}
@@ -1,253 +1,792 @@
 package com.example.vtracer.tracing.collector;
 
+import com.example.vtracer.analysis.flamegraph.model.FlameNode;
+import com.example.vtracer.config.VTracerConfig;
+import com.example.vtracer.tracing.jfr.MethodSpanEvent;
+import com.example.vtracer.tracing.model.EventBatch;
+import com.example.vtracer.tracing.model.LatencyHistogram;
+import com.example.vtracer.tracing.model.MethodLatencies;
+import com.example.vtracer.tracing.model.MethodRegistry;
 import com.example.vtracer.tracing.model.TraceEvent;
+import com.example.vtracer.tracing.sampling.OverheadEstimator;
+import com.example.vtracer.tracing.sampling.Sampler;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
 
 /**
  * Collects trace events with bounded buffer and adaptive sampling
  *
- * <p>Thread-safe, lock-free design using ThreadLocal and ConcurrentLinkedQueue
+ * <p>Thread-safe, lock-free design: each thread owns a call stack and a single-producer ring buffer,
+ * so the hot path never touches state shared with other application threads. The background drain
+ * is the single consumer of every ring.
+ *
+ * <p>Sampling is decided per trace: the outermost instrumented frame of a thread asks the sampler
+ * once, and the whole subtree follows that decision. An unsampled subtree only maintains a depth
+ * counter, so it costs one thread-local lookup per call.
+ *
+ * <p>In virtual-thread mode, virtual threads do not get state of their own. They lease a pooled
+ * call stack when their outermost frame enters and return it when that frame exits. Sampled traces
+ * also lease a pooled ring. Memory is then bounded by the number of concurrent traces, not by the
+ * number of threads ever started.
+ *
+ * <p>In span mode a call is written once, at exit, as a single SPAN record carrying its start,
+ * duration, parent and depth. That halves the records per call and removes ENTER/EXIT matching
+ * from analysis.
+ *
+ * <p>With a minimum duration configured, a call is only judged at exit: calls shorter than their
+ * method's threshold are not recorded and their time stays in the caller's self time. A recorded
+ * call pins its callers, so they are recorded whatever their duration and the tree stays
+ * connected. In event mode this defers ENTER records until a frame is known to be kept.
+ *
+ * <p>Aggregate mode records nothing per call: each thread sums calls, total and self time into its
+ * own {@link CallPathTrie} at exit, and {@link #drainProfile()} merges the tries.
+ * There are no rings, so nothing is ever dropped and memory follows the number of distinct paths.
+ *
+ * <p>JFR mode records like span mode but commits a {@link MethodSpanEvent} instead of writing a
+ * ring, so JFR's thread-local buffers and file take the place of rings and drain. Minimum durations
+ * are then a JFR setting on the event, not a collector filter.
+ *
+ * <p>With overflow set to spill, full rings overflow into a shared {@link SpillFile} that the next
+ * drain reads back after the rings, so capture sessions lose nothing until the file itself fills.
+ *
+ * <p>In every mode, each traced exit also lands in its method's {@link MethodLatencies} histogram,
+ * before any duration filtering, so percentiles cover all calls of sampled traces.
  */
 public class CallTreeCollector {
 
   private static final int MAX_STACK_DEPTH = 512;
-  private static final long ESTIMATED_OVERHEAD_NS_PER_CALL = 50;
-
-  private final ThreadLocal<CallStack> stacks;
-  private final Queue<TraceEvent> eventBuffer;
+  private static final int METRICS_TOP_LATENCIES = 20;
+
+  private final ThreadLocal<ThreadState> threadStates;
+  // Keyed by ring ID, so records read back from the spill find their ring
+  private final Map<Integer, EventRingBuffer> buffers;
+  // Null unless overflow spills
+  private final SpillFile spill;
+  private final Queue<CallPathTrie> tries;
+  private final VTracerConfig config;
   private final int bufferCapacity;
-  private final AtomicLong totalEnters;
-  private final AtomicLong totalExits;
-  private final AtomicLong droppedEvents;
-  private final AtomicLong sampledEvents;
-  private final AtomicLong currentSize;
-  private final long startTime;
-
-  public CallTreeCollector(int bufferCapacity) {
-    this.bufferCapacity = bufferCapacity;
-    this.stacks = ThreadLocal.withInitial(CallStack::new);
-    this.eventBuffer = new ConcurrentLinkedQueue<>();
-    this.totalEnters = new AtomicLong(0);
-    this.totalExits = new AtomicLong(0);
-    this.droppedEvents = new AtomicLong(0);
-    this.sampledEvents = new AtomicLong(0);
-    this.currentSize = new AtomicLong(0);
-    this.startTime = System.nanoTime();
-  }
-
-  public void onMethodEnter(long threadId, String className, String methodName, long timestamp) {
-    totalEnters.incrementAndGet();
-
-    CallStack stack = stacks.get();
+  private final int recordBytes;
+  private final Sampler sampler;
+  private final boolean virtualThreadMode;
+  private final boolean spanMode;
+  private final boolean aggregateMode;
+  private final boolean jfrMode;
+  // False when calls go to tries or JFR instead
+  private final boolean usesRings;
+  private final boolean filtering;
+  private final long globalMinDuration;
+  // Minimum duration per method ID, set at transformation time; grown in place, never shrunk
+  private volatile long[] minDurations;
+  // Idle leases for virtual threads
+  private final Queue<ThreadState> idleStates;
+  private final Queue<EventRingBuffer> idleBuffers;
+  private final AtomicInteger nextBufferId;
+  private final AtomicInteger pooledStates;
+  // Reused across drains; only the background drain touches it
+  private final EventBatch drainBatch;
+  private final CallPathTrie.Snapshot trieSnapshot;
+  private final LongAdder totalEnters;
+  private final LongAdder totalExits;
+  private final LongAdder sampledTraces;
+  private final LongAdder skippedTraces;
+  private final LongAdder filteredCalls;
+  // Counters carried over from rings whose threads have terminated
+  private final LongAdder retiredDropped;
+  private final LongAdder retiredWritten;
+  private final LongAdder retiredSpilled;
+  // Ring counters at the last stats reset
+  private volatile long droppedBaseline;
+  private volatile long writtenBaseline;
+  private volatile long spilledBaseline;
+  private final OverheadEstimator overheadEstimator;
+  private final MethodLatencies latencies;
+  // No new trace is sampled while set; traces already running finish normally
+  private volatile boolean paused;
+  // Set before shared state is cleared: no call is tracked or recorded from then on
+  private volatile boolean stopped;
+
+  /**
+   * @param config buffer size (per thread or per leased ring), virtual-thread, collector and
+   *     overflow mode
+   * @param sampler decides which traces are recorded
+   */
+  public CallTreeCollector(VTracerConfig config, Sampler sampler) {
+    this(config, sampler, openSpill(config));
+  }
+
+  /** Collector with an explicit overflow tier (null drops) - calibration must never spill */
+  CallTreeCollector(VTracerConfig config, Sampler sampler, SpillFile spill) {
+    this.config = config;
+    this.spill = spill;
+    this.bufferCapacity = config.getBufferSize();
+    this.sampler = sampler;
+    this.virtualThreadMode = config.isVirtualThreadMode();
+    this.spanMode = config.getCollectorMode() == VTracerConfig.CollectorMode.SPANS;
+    this.aggregateMode = config.getCollectorMode() == VTracerConfig.CollectorMode.AGGREGATE;
+    this.jfrMode = config.getCollectorMode() == VTracerConfig.CollectorMode.JFR;
+    this.usesRings = !aggregateMode && !jfrMode;
+    this.recordBytes = recordBytesOf(config);
+    this.filtering = config.hasMinDuration() && !jfrMode;
+    this.globalMinDuration = config.getMinDurationNanos();
+    this.minDurations = new long[0];
+    this.buffers = new ConcurrentHashMap<>();
+    this.tries = new ConcurrentLinkedQueue<>();
+    this.idleStates = new ConcurrentLinkedQueue<>();
+    this.idleBuffers = new ConcurrentLinkedQueue<>();
+    this.nextBufferId = new AtomicInteger(0);
+    this.pooledStates = new AtomicInteger(0);
+    this.drainBatch = new EventBatch(bufferCapacity, recordBytes);
+    this.trieSnapshot = new CallPathTrie.Snapshot();
+    this.threadStates = new ThreadLocal<>();
+    this.totalEnters = new LongAdder();
+    this.totalExits = new LongAdder();
+    this.sampledTraces = new LongAdder();
+    this.skippedTraces = new LongAdder();
+    this.filteredCalls = new LongAdder();
+    this.retiredDropped = new LongAdder();
+    this.retiredWritten = new LongAdder();
+    this.retiredSpilled = new LongAdder();
+    this.overheadEstimator = new OverheadEstimator();
+    this.latencies = new MethodLatencies();
+  }
+
+  private static int recordBytesOf(VTracerConfig config) {
+    return config.getCollectorMode() == VTracerConfig.CollectorMode.SPANS
+        ? TraceEvent.SPAN_BYTES
+        : TraceEvent.BYTES;
+  }
+
+  private static SpillFile openSpill(VTracerConfig config) {
+    if (config.getOverflowPolicy() != VTracerConfig.OverflowPolicy.SPILL
+        || config.getCollectorMode() == VTracerConfig.CollectorMode.AGGREGATE
+        || config.getCollectorMode() == VTracerConfig.CollectorMode.JFR) {
+      return null;
+    }
+    try {
+      SpillFile spill =
+          new SpillFile(config.getSpillFile(), config.getSpillSizeBytes(), recordBytesOf(config));
+      System.out.println("[VTracer] Overflow spills to " + config.getSpillFile());
+      return spill;
+    } catch (IOException | RuntimeException e) {
+      System.err.println("[VTracer] Cannot open spill file, overflow drops: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /** Bind collector state to the calling thread at its outermost frame */
+  private ThreadState attach() {
+    Thread thread = Thread.currentThread();
+    ThreadState state;
+
+    if (virtualThreadMode && thread.isVirtual()) {
+      state = idleStates.poll();
+      if (state == null) {
+        state = new ThreadState(true, null, newTrie(null));
+        pooledStates.incrementAndGet();
+      }
+    } else if (!usesRings) {
+      state = new ThreadState(false, null, newTrie(thread));
+    } else {
+      state = new ThreadState(false, newBuffer(thread), null);
+    }
+
+    state.threadId = thread.threadId();
+    threadStates.set(state);
+    return state;
+  }
+
+  /** Return a leased state (and ring) once its outermost frame has exited */
+  private void releaseIfIdle(ThreadState state) {
+    if (!state.pooled || !state.stack.isEmpty() || state.skippedDepth > 0 || stopped) {
+      return;
+    }
+
+    if (state.buffer != null) {
+      idleBuffers.offer(state.buffer);
+      state.buffer = null;
+    }
+    threadStates.remove();
+    idleStates.offer(state);
+  }
+
+  private EventRingBuffer newBuffer(Thread owner) {
+    int id = nextBufferId.getAndIncrement();
+    EventRingBuffer buffer = new EventRingBuffer(id, bufferCapacity, recordBytes, owner, spill);
+    buffers.put(id, buffer);
+    return buffer;
+  }
+
+  private CallPathTrie newTrie(Thread owner) {
+    if (!aggregateMode) {
+      return null;
+    }
+    CallPathTrie trie = new CallPathTrie(owner);
+    tries.add(trie);
+    return trie;
+  }
+
+  /**
+   * Record a method entry on the calling thread
+   *
+   * @return true if the matching {@link #onMethodExit()} must be reported
+   */
+  public boolean onMethodEnter(int methodId) {
+    if (stopped) {
+      return false;
+    }
+    ThreadState state = threadStates.get();
+    if (state == null) {
+      state = attach();
+    }
+
+    // Inside a trace the sampler rejected: just track depth
+    if (state.skippedDepth > 0) {
+      state.skippedDepth++;
+      return true;
+    }
+
+    CallStack stack = state.stack;
+
+    // Outermost frame: decide once for the whole trace
+    if (stack.isEmpty()) {
+      if (paused || !sampler.shouldSample(0)) {
+        skippedTraces.increment();
+        state.skippedDepth = 1;
+        return true;
+      }
+
+      sampledTraces.increment();
+      if (state.pooled && usesRings) {
+        EventRingBuffer buffer = idleBuffers.poll();
+        state.buffer = buffer != null ? buffer : newBuffer(null);
+      }
+    }
+
+    totalEnters.increment();
+    long timestamp = System.nanoTime();
 
     // Check max depth to prevent runaway recursion
     if (stack.depth() >= MAX_STACK_DEPTH) {
-      droppedEvents.incrementAndGet();
+      if (state.buffer != null) {
+        state.buffer.recordDrop();
+      }
       stack.pushNoOp();
-      return;
+      return true;
     }
 
-    CallFrame frame = new CallFrame(className, methodName, timestamp);
-    stack.push(frame);
+    stack.push(methodId, timestamp);
 
-    // Create ENTER event
-    TraceEvent event = TraceEvent.enter(threadId, className, methodName, timestamp);
-    offerEvent(event);
+    // Record ENTER event (span mode writes the whole call at exit, filtering defers it)
+    if (aggregateMode) {
+      state.trie.enter(methodId);
+    } else if (usesRings && !spanMode && !filtering) {
+      state.buffer.offer(state.threadId, methodId, timestamp, TraceEvent.Type.ENTER);
+    }
+    return true;
   }
 
-  public void onMethodExit(long threadId, long timestamp) {
-    totalExits.incrementAndGet();
+  /** Record the exit of the innermost call tracked by {@link #onMethodEnter(int)} */
+  public void onMethodExit() {
+    ThreadState state = threadStates.get();
+    if (state == null) {
+      // Unmatched exit (shouldn't happen with proper instrumentation)
+      return;
+    }
+    if (stopped) {
+      // Rings and pools are being released - keep the stack balanced, record nothing
+      state.skippedDepth = 0;
+      if (!state.stack.isEmpty()) {
+        state.stack.pop();
+      }
+      return;
+    }
+
+    if (state.skippedDepth > 0) {
+      state.skippedDepth--;
+      releaseIfIdle(state);
+      return;
+    }
+
+    totalExits.increment();
+    long timestamp = System.nanoTime();
 
-    CallStack stack = stacks.get();
-    CallFrame frame = stack.pop();
+    CallStack stack = state.stack;
 
-    if (frame == null) {
+    if (stack.isEmpty()) {
       // Unmatched exit (shouldn't happen with proper instrumentation)
       return;
     }
 
-    if (frame.isNoOp()) {
-      // Was over depth limit
+    int methodId = stack.peekMethodId();
+    long startTime = stack.peekStartTime();
+    int top = stack.depth() - 1;
+
+    // Nothing is recorded for frames over the depth limit
+    if (methodId == CallStack.NO_OP) {
+      stack.pop();
+      releaseIfIdle(state);
       return;
     }
 
-    // Create EXIT event
-    TraceEvent event =
-        TraceEvent.exit(threadId, frame.getClassName(), frame.getMethodName(), timestamp);
-    offerEvent(event);
-  }
+    long duration = timestamp - startTime;
+    latencies.record(methodId, state.threadId, duration);
+
+    if (aggregateMode) {
+      // Every call is summed, however short
+      state.trie.exit(duration);
+      stack.pop();
+      releaseIfIdle(state);
+      return;
+    }
 
-  private void offerEvent(TraceEvent event) {
-    // Check buffer capacity using precise atomic counter
-    if (currentSize.get() < bufferCapacity) {
-      eventBuffer.offer(event);
-      currentSize.incrementAndGet();
-      sampledEvents.incrementAndGet();
+    if (filtering && !stack.isPinned(top) && duration < minDuration(methodId)) {
+      // Too short to keep - its time stays in the caller's self time
+      filteredCalls.increment();
+      stack.pop();
+      releaseIfIdle(state);
+      return;
+    }
+
+    if (jfrMode) {
+      stack.pop();
+      int parentMethodId = stack.isEmpty() ? -1 : stack.peekMethodId();
+      MethodSpanEvent.emit(methodId, parentMethodId, stack.depth(), startTime, duration);
+    } else if (spanMode) {
+      stack.pop();
+      int parentMethodId = stack.isEmpty() ? -1 : stack.peekMethodId();
+      state.buffer.offerSpan(
+          state.threadId, methodId, startTime, duration, parentMethodId, stack.depth());
+      if (filtering && !stack.isEmpty()) {
+        stack.pin(stack.depth() - 1);
+      }
     } else {
-      droppedEvents.incrementAndGet();
+      if (filtering) {
+        writeDeferredEnters(state, top);
+      }
+      stack.pop();
+      state.buffer.offer(state.threadId, methodId, timestamp, TraceEvent.Type.EXIT);
     }
+
+    releaseIfIdle(state);
   }
 
-  /** Drain all events from buffer */
-  public List<TraceEvent> drain() {
-    List<TraceEvent> events = new ArrayList<>();
-    TraceEvent event;
+  /** Write the ENTER records of {@code top} and its callers not written yet, outermost first */
+  private void writeDeferredEnters(ThreadState state, int top) {
+    CallStack stack = state.stack;
+    if (stack.isPinned(top)) {
+      return;
+    }
 
-    while ((event = eventBuffer.poll()) != null) {
-      events.add(event);
+    // Pinned frames form a prefix of the stack
+    int first = top;
+    while (first > 0 && !stack.isPinned(first - 1)) {
+      first--;
     }
 
-    sampledEvents.addAndGet(-events.size());
-    currentSize.addAndGet(-events.size());
+    for (int i = first; i <= top; i++) {
+      state.buffer.offer(
+          state.threadId, stack.methodIdAt(i), stack.startTimeAt(i), TraceEvent.Type.ENTER);
+      stack.pin(i);
+    }
+  }
 
-    return events;
+  private long minDuration(int methodId) {
+    long[] mins = minDurations;
+    return methodId < mins.length ? mins[methodId] : globalMinDuration;
   }
 
-  /** Calculate current overhead percentage */
-  public double getOverheadPercent() {
-    long totalEvents = totalEnters.get() + totalExits.get();
-    if (totalEvents == 0) {
-      return 0.0;
+  /** Set the minimum recorded duration of one method - called at class transformation time */
+  public synchronized void setMinDuration(int methodId, long nanos) {
+    long[] mins = minDurations;
+    if (methodId >= mins.length) {
+      int oldLength = mins.length;
+      mins = Arrays.copyOf(mins, Math.max(methodId + 1, Math.max(256, oldLength * 2)));
+      Arrays.fill(mins, oldLength, mins.length, globalMinDuration);
     }
+    mins[methodId] = nanos;
+    // Volatile write publishes the new value
+    minDurations = mins;
+  }
 
-    long elapsedNanos = System.nanoTime() - startTime;
-    if (elapsedNanos == 0) {
-      return 0.0;
+  /**
+   * Drain all events from every thread's buffer, one bulk copy per ring
+   *
+   * <p>The returned batch is reused and only valid until the next call.
+   */
+  public EventBatch drain() {
+    EventBatch events = drainBatch;
+    events.clear();
+
+    // New overflow goes to the other half while this one is read back after the rings
+    int spillHalf = spill != null ? spill.flip() : -1;
+
+    Iterator<EventRingBuffer> it = buffers.values().iterator();
+    while (it.hasNext()) {
+      EventRingBuffer buffer = it.next();
+      buffer.drainTo(events);
+
+      // Forget rings of terminated threads once they are empty
+      if (buffer.isRetired()) {
+        it.remove();
+        events.markEnded(buffer.id());
+        retiredDropped.add(buffer.dropped());
+        retiredWritten.add(buffer.written());
+        retiredSpilled.add(buffer.spilled());
+      }
     }
 
-    // Rough estimate: ESTIMATED_OVERHEAD_NS_PER_CALL per instrumented call
-    long overheadNanos = totalEvents * ESTIMATED_OVERHEAD_NS_PER_CALL;
+    if (spill != null) {
+      spill.drainTo(
+          spillHalf,
+          events,
+          sourceId -> {
+            EventRingBuffer buffer = buffers.get(sourceId);
+            if (buffer != null) {
+              buffer.spillConsumed();
+            }
+          });
+    }
 
-    return (double) overheadNanos / elapsedNanos;
+    return events;
   }
 
-  /** Export metrics to file */
-  public void exportMetrics(Path metricsFile) {
-    try {
-      Files.createDirectories(metricsFile.getParent());
+  /**
+   * Merge the call counts and times every thread accumulated since the previous call (aggregate
+   * mode)
+   *
+   * @return synthetic root whose children are the outermost methods; empty outside aggregate mode
+   */
+  public FlameNode drainProfile() {
+    FlameNode root = FlameNode.root();
+    CallPathTrie.Snapshot snapshot = trieSnapshot;
+
+    Iterator<CallPathTrie> it = tries.iterator();
+    while (it.hasNext()) {
+      CallPathTrie trie = it.next();
+      // Checked first: once the owner is dead this drain sees its last update
+      boolean retired = trie.isRetired();
+      mergeInto(root, snapshot, trie.drainTo(snapshot));
+      if (retired) {
+        it.remove();
+      }
+    }
 
-      try (BufferedWriter w = Files.newBufferedWriter(metricsFile)) {
-        w.write("methodEnters: " + totalEnters.get() + "\n");
-        w.write("methodExits: " + totalExits.get() + "\n");
-        w.write("eventsDropped: " + droppedEvents.get() + "\n");
-        w.write("eventsSampled: " + sampledEvents.get() + "\n");
-        w.write("overheadPercent: " + String.format("%.2f", getOverheadPercent() * 100) + "\n");
-        w.write(
-            "bufferUtilization: "
-                + String.format("%.2f", (double) currentSize.get() / bufferCapacity * 100)
-                + "\n");
+    return root;
+  }
+
+  private static void mergeInto(FlameNode root, CallPathTrie.Snapshot snapshot, int size) {
+    // Keep paths with new calls, and their callers (which may still be running)
+    boolean[] active = new boolean[size];
+    for (int i = size - 1; i > CallPathTrie.ROOT; i--) {
+      if (active[i] || snapshot.calls[i] > 0) {
+        active[i] = true;
+        active[snapshot.parents[i]] = true;
       }
-    } catch (IOException e) {
-      System.err.println("[VTracer] Failed to export metrics: " + e.getMessage());
+    }
+
+    // Parents precede children, so one forward pass maps every path
+    FlameNode[] merged = new FlameNode[size];
+    merged[CallPathTrie.ROOT] = root;
+    for (int i = CallPathTrie.ROOT + 1; i < size; i++) {
+      if (!active[i]) {
+        continue;
+      }
+      FlameNode node = merged[snapshot.parents[i]].getOrCreateChild(snapshot.methodIds[i]);
+      node.addCalls(snapshot.calls[i]);
+      node.addSelfTime(snapshot.selfTimes[i]);
+      merged[i] = node;
     }
   }
 
-  /** Cleanup thread-local storage */
-  public void cleanup() {
-    stacks.remove();
+  /**
+   * Measure the per-call cost of the advice and this collector on the current hardware (takes
+   * milliseconds)
+   *
+   * @param adviceLookup the check the advice makes before calling the collector
+   */
+  public void calibrate(BooleanSupplier adviceLookup) {
+    OverheadCalibrator.calibrate(overheadEstimator, config, adviceLookup);
   }
 
-  /** Call frame on the stack */
-  private static class CallFrame {
-    private final String className;
-    private final String methodName;
-    private final long timestamp;
-    private final boolean noOp;
+  /**
+   * Close the current overhead window and start the next one
+   *
+   * @return overhead as fraction of total CPU since the previous call, or NaN if idle
+   */
+  public double measureOverhead() {
+    return overheadEstimator.update(totalEnters.sum(), sampledTraces.sum(), skippedTraces.sum());
+  }
 
-    public CallFrame(String className, String methodName, long timestamp) {
-      this.className = className;
-      this.methodName = methodName;
-      this.timestamp = timestamp;
-      this.noOp = false;
-    }
+  /** Overhead over the last completed window, as fraction of total CPU */
+  public double getOverheadPercent() {
+    return overheadEstimator.getLastOverhead();
+  }
 
-    private CallFrame() {
-      this.className = null;
-      this.methodName = null;
-      this.timestamp = 0;
-      this.noOp = true;
-    }
+  public OverheadEstimator getOverheadEstimator() {
+    return overheadEstimator;
+  }
 
-    public static CallFrame noOp() {
-      return new CallFrame();
-    }
+  /** Latency histograms of every traced method, cumulative since startup or the last reset */
+  public MethodLatencies getLatencies() {
+    return latencies;
+  }
 
-    public String getClassName() {
-      return className;
-    }
+  int getBufferCapacity() {
+    return bufferCapacity;
+  }
+
+  /** Ring records written per traced call */
+  int getRecordsPerCall() {
+    return spanMode || !usesRings ? 1 : 2;
+  }
+
+  /** Records dropped because a ring (and the spill, if any) was full or the stack was too deep */
+  public long getDroppedEvents() {
+    return totalDropped() - droppedBaseline;
+  }
+
+  /** Records (events or spans) accepted into a ring or the spill since the last reset */
+  public long getSampledEvents() {
+    return totalWritten() - writtenBaseline;
+  }
 
-    public String getMethodName() {
-      return methodName;
+  /** Records that overflowed into the spill file since the last reset */
+  public long getSpilledEvents() {
+    return totalSpilled() - spilledBaseline;
+  }
+
+  private long totalDropped() {
+    long dropped = retiredDropped.sum();
+    for (EventRingBuffer buffer : buffers.values()) {
+      dropped += buffer.dropped();
     }
+    return dropped;
+  }
 
-    public long getTimestamp() {
-      return timestamp;
+  private long totalWritten() {
+    long written = retiredWritten.sum();
+    for (EventRingBuffer buffer : buffers.values()) {
+      written += buffer.written();
     }
+    return written;
+  }
 
-    public boolean isNoOp() {
-      return noOp;
+  private long totalSpilled() {
+    long spilled = retiredSpilled.sum();
+    for (EventRingBuffer buffer : buffers.values()) {
+      spilled += buffer.spilled();
     }
+    return spilled;
+  }
+
+  public long getMethodEnters() {
+    return totalEnters.sum();
+  }
+
+  public long getMethodExits() {
+    return totalExits.sum();
+  }
+
+  public long getSampledTraces() {
+    return sampledTraces.sum();
   }
 
-  /** Thread-local call stack with recursion detection */
-  private static class CallStack {
-    private final Deque<CallFrame> frames;
-    private final Set<String> activeFrames;
+  public long getSkippedTraces() {
+    return skippedTraces.sum();
+  }
+
+  /** Calls not recorded because they were shorter than their minimum duration */
+  public long getFilteredCalls() {
+    return filteredCalls.sum();
+  }
+
+  /**
+   * Stop or restart sampling new traces
+   *
+   * <p>Traces already sampled run to their outermost exit, so every recorded ENTER still gets its
+   * EXIT.
+   */
+  public void setPaused(boolean paused) {
+    this.paused = paused;
+  }
+
+  public boolean isPaused() {
+    return paused;
+  }
+
+  /**
+   * Restart counters and latency histograms from zero
+   *
+   * <p>Calls in flight may land on either side of the reset. Recorded events are not affected.
+   */
+  public void resetStats() {
+    overheadEstimator.reset();
+    totalEnters.reset();
+    totalExits.reset();
+    sampledTraces.reset();
+    skippedTraces.reset();
+    filteredCalls.reset();
+    droppedBaseline = totalDropped();
+    writtenBaseline = totalWritten();
+    spilledBaseline = totalSpilled();
+    latencies.reset();
+  }
 
-    public CallStack() {
-      this.frames = new ArrayDeque<>();
-      this.activeFrames = new HashSet<>();
+  /** Fraction of total ring capacity currently holding undrained events */
+  public double getBufferUtilization() {
+    long size = 0;
+    long capacity = 0;
+    for (EventRingBuffer buffer : buffers.values()) {
+      size += buffer.size();
+      capacity += buffer.capacity();
     }
+    return capacity == 0 ? 0.0 : (double) size / capacity;
+  }
 
-    public void push(CallFrame frame) {
-      String sig = frame.getClassName() + "." + frame.getMethodName();
+  /** Distinct call paths held by all tries (aggregate mode) */
+  public long getCallPathCount() {
+    long paths = 0;
+    for (CallPathTrie trie : tries) {
+      paths += trie.size() - 1;
+    }
+    return paths;
+  }
 
-      // Detect direct recursion
-      if (activeFrames.contains(sig)) {
-        // For recursive calls, still track but mark specially
-        // (Could enhance to track recursion depth)
-      }
+  /** Export metrics to file, with the slowest methods by p99 resolved through the registry */
+  public void exportMetrics(Path metricsFile, MethodRegistry registry) {
+    try {
+      Files.createDirectories(metricsFile.getParent());
 
-      frames.push(frame);
-      if (!frame.isNoOp()) {
-        activeFrames.add(sig);
+      try (BufferedWriter w = Files.newBufferedWriter(metricsFile)) {
+        writeMetrics(w, registry);
       }
+    } catch (IOException e) {
+      System.err.println("[VTracer] Failed to export metrics: " + e.getMessage());
     }
+  }
 
-    public void pushNoOp() {
-      frames.push(CallFrame.noOp());
+  /** Write metrics lines, so callers can add their own to the same file */
+  public void writeMetrics(Writer w, MethodRegistry registry) throws IOException {
+    w.write("methodEnters: " + totalEnters.sum() + "\n");
+    w.write("methodExits: " + totalExits.sum() + "\n");
+    w.write("collectorMode: " + config.getCollectorMode() + "\n");
+    w.write("eventsDropped: " + getDroppedEvents() + "\n");
+    w.write("eventsSampled: " + getSampledEvents() + "\n");
+    if (spill != null) {
+      w.write("eventsSpilled: " + getSpilledEvents() + "\n");
+    }
+    w.write("tracesSampled: " + sampledTraces.sum() + "\n");
+    w.write("tracesSkipped: " + skippedTraces.sum() + "\n");
+    w.write("callsBelowMinDuration: " + filteredCalls.sum() + "\n");
+    w.write("sampleRate: " + String.format("%.4f", sampler.getSampleRate()) + "\n");
+    w.write("threadBuffers: " + buffers.size() + "\n");
+    w.write("pooledStates: " + pooledStates.get() + "\n");
+    if (aggregateMode) {
+      w.write("callPaths: " + getCallPathCount() + "\n");
     }
+    w.write("overheadPercent: " + String.format("%.2f", getOverheadPercent() * 100) + "\n");
+    w.write(
+        "overheadCalibrated: "
+            + overheadEstimator.isCalibrated()
+            + " (traced call "
+            + String.format("%.1f", overheadEstimator.getTracedCallNanos())
+            + "ns, skipped call "
+            + String.format("%.1f", overheadEstimator.getSkippedCallNanos())
+            + "ns)\n");
+    w.write("bufferUtilization: " + String.format("%.2f", getBufferUtilization() * 100) + "\n");
+    writeLatencies(w, registry);
+  }
 
-    public CallFrame pop() {
-      if (frames.isEmpty()) {
-        return null;
+  private void writeLatencies(Writer w, MethodRegistry registry) throws IOException {
+    Map<Integer, LatencyHistogram.Snapshot> snapshots = new HashMap<>();
+    for (int methodId = 0; methodId < latencies.capacity(); methodId++) {
+      LatencyHistogram histogram = latencies.get(methodId);
+      if (histogram != null) {
+        snapshots.put(methodId, histogram.snapshot());
       }
+    }
 
-      CallFrame frame = frames.pop();
-
-      if (!frame.isNoOp()) {
-        String sig = frame.getClassName() + "." + frame.getMethodName();
-        // Only remove if not recursive (top-level exit)
-        boolean hasAnother =
-            frames.stream()
-                .anyMatch(
-                    f -> !f.isNoOp() && sig.equals(f.getClassName() + "." + f.getMethodName()));
-        if (!hasAnother) {
-          activeFrames.remove(sig);
-        }
-      }
+    // Slowest tails first
+    List<Integer> slowest = new ArrayList<>(snapshots.keySet());
+    slowest.sort(
+        Comparator.comparingLong((Integer id) -> snapshots.get(id).getValueAtPercentile(99.0))
+            .reversed());
+
+    w.write("latencyMethods: " + snapshots.size() + "\n");
+    for (int methodId : slowest.subList(0, Math.min(METRICS_TOP_LATENCIES, slowest.size()))) {
+      LatencyHistogram.Snapshot snapshot = snapshots.get(methodId);
+      w.write(
+          String.format(
+              "latency %s: count=%d p50=%dns p90=%dns p99=%dns p999=%dns max=%dns%n",
+              registry.getSignature(methodId),
+              snapshot.getCount(),
+              snapshot.getValueAtPercentile(50.0),
+              snapshot.getValueAtPercentile(90.0),
+              snapshot.getValueAtPercentile(99.0),
+              snapshot.getValueAtPercentile(99.9),
+              snapshot.getMax()));
+    }
+  }
 
-      return frame;
+  /**
+   * Stop tracking calls and release shared state
+   *
+   * <p>The collector is stopped first, so application threads still inside advice stop writing
+   * records and stop returning leases to the pools before they are cleared; a thread caught
+   * mid-exit finishes on its own ring, which nothing reads or reuses any more. Other threads'
+   * thread-locals cannot be removed from here; dropping the registries lets their state be
+   * collected with those threads.
+   */
+  public void cleanup() {
+    stopped = true;
+    threadStates.remove();
+    idleStates.clear();
+    idleBuffers.clear();
+    buffers.clear();
+    tries.clear();
+    if (spill != null) {
+      spill.delete();
     }
+  }
 
-    public int depth() {
-      return frames.size();
+  /**
+   * Collector state of one thread, or of one leased virtual-thread trace - touched only by the
+   * thread currently holding it
+   */
+  private static final class ThreadState {
+    private final boolean pooled;
+    private final CallStack stack;
+    private long threadId;
+    // Fixed for platform threads; leased per sampled trace when pooled; null in aggregate mode
+    private EventRingBuffer buffer;
+    // Aggregate mode only; kept with a pooled state across leases
+    private final CallPathTrie trie;
+
+    // Depth inside a trace the sampler rejected; 0 when not in one
+    private int skippedDepth;
+
+    private ThreadState(boolean pooled, EventRingBuffer buffer, CallPathTrie trie) {
+      this.pooled = pooled;
+      this.stack = new CallStack();
+      this.buffer = buffer;
+      this.trie = trie;
+      this.skippedDepth = 0;
     }
   }
 }
@@ -0,0 +1,240 @@
+package com.example.vtracer.tracing.collector;
+
+import com.example.vtracer.tracing.model.EventBatch;
+import com.example.vtracer.tracing.model.TraceEvent;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded single-producer/single-consumer ring buffer
+ *
+ * <p>The owning thread is the only producer and the background drain is the only consumer, so both
+ * sides publish their position with an ordered store instead of a CAS. Capacity must be a power of
+ * 2 so slot lookup is a mask.
+ *
+ * <p>Slots are fixed-width {@link TraceEvent} records in a direct buffer, so a busy application
+ * adds no heap objects no matter how many events pass through.
+ *
+ * <p>A ring either belongs to one platform thread for its lifetime, or is pooled and leased to one
+ * virtual thread per sampled trace. The pool hand-off orders successive producers, so the ring
+ * always has a single producer at a time and holds whole traces back to back.
+ *
+ * <p>With a {@link SpillFile}, a full ring overflows into the file instead of dropping. It then
+ * keeps spilling until the drain has read back everything it spilled, so no record ever overtakes
+ * an older spilled one. Only a full spill half drops.
+ */
+final class EventRingBuffer {
+
+  private final ByteBuffer records;
+  private final int capacity;
+  private final int mask;
+  private final int id;
+  // Null for pooled rings, which are never retired
+  private final Thread owner;
+  // Null when overflow drops
+  private final SpillFile spill;
+
+  // Next slot to write (producer) and next slot to read (consumer)
+  private final AtomicLong tail;
+  private final AtomicLong head;
+
+  // Overflow count, written only by the producer
+  private final AtomicLong dropped;
+  // Records lost to a full ring and spill (producer), and the count last reported (consumer)
+  private final AtomicLong lost;
+  private long lostReported;
+
+  // Producer's last observed head, refreshed only when the buffer looks full
+  private long cachedHead;
+
+  // Producer-owned: records go to the spill until it has been drained
+  private boolean spilling;
+  // Records spilled (written by the producer) and read back (written by the consumer)
+  private final AtomicLong spilled;
+  private final AtomicLong spillConsumed;
+
+  /**
+   * @param recordBytes {@link TraceEvent#BYTES} or {@link TraceEvent#SPAN_BYTES}
+   * @param spill overflow tier, or null to drop when full
+   */
+  EventRingBuffer(int id, int capacity, int recordBytes, Thread owner, SpillFile spill) {
+    if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+      throw new IllegalArgumentException("Buffer capacity must be power of 2");
+    }
+    if (capacity > Integer.MAX_VALUE / recordBytes) {
+      throw new IllegalArgumentException("Buffer capacity too large: " + capacity);
+    }
+    this.records = EventBatch.allocate(capacity, recordBytes);
+    this.capacity = capacity;
+    this.mask = capacity - 1;
+    this.id = id;
+    this.owner = owner;
+    this.spill = spill;
+    this.tail = new AtomicLong(0);
+    this.head = new AtomicLong(0);
+    this.dropped = new AtomicLong(0);
+    this.lost = new AtomicLong(0);
+    this.lostReported = 0;
+    this.cachedHead = 0;
+    this.spilling = false;
+    this.spilled = new AtomicLong(0);
+    this.spillConsumed = new AtomicLong(0);
+  }
+
+  /** Append an ENTER/EXIT event (producer thread only) - false and a counted drop when full */
+  boolean offer(long threadId, int methodId, long timestamp, TraceEvent.Type type) {
+    long t = tail.get();
+    if (!hasRoom(t)) {
+      int offset = acquireSpillSlot();
+      if (offset < 0) {
+        return false;
+      }
+      TraceEvent.writeAt(spill.buffer(), offset, threadId, methodId, timestamp, type);
+      releaseSpillSlot(offset);
+      return true;
+    }
+
+    TraceEvent.write(records, (int) t & mask, threadId, methodId, timestamp, type);
+    tail.lazySet(t + 1);
+    return true;
+  }
+
+  /** Append a SPAN record (producer thread only) - false and a counted drop when full */
+  boolean offerSpan(
+      long threadId, int methodId, long startTime, long duration, int parentMethodId, int depth) {
+    long t = tail.get();
+    if (!hasRoom(t)) {
+      int offset = acquireSpillSlot();
+      if (offset < 0) {
+        return false;
+      }
+      TraceEvent.writeSpanAt(
+          spill.buffer(), offset, threadId, methodId, startTime, duration, parentMethodId, depth);
+      releaseSpillSlot(offset);
+      return true;
+    }
+
+    TraceEvent.writeSpan(
+        records, (int) t & mask, threadId, methodId, startTime, duration, parentMethodId, depth);
+    tail.lazySet(t + 1);
+    return true;
+  }
+
+  /** Room in the ring - never while spilled records are still waiting to be drained */
+  private boolean hasRoom(long t) {
+    if (spilling) {
+      if (spillConsumed.get() != spilled.get()) {
+        return false;
+      }
+      spilling = false;
+    }
+    if (t - cachedHead >= capacity) {
+      cachedHead = head.get();
+      return t - cachedHead < capacity;
+    }
+    return true;
+  }
+
+  /** Spill slot for a record that does not fit the ring, or -1 after counting a drop */
+  private int acquireSpillSlot() {
+    if (spill == null) {
+      recordLoss();
+      return -1;
+    }
+    spilling = true;
+    int offset = spill.acquire(id);
+    if (offset < 0) {
+      recordLoss();
+    }
+    return offset;
+  }
+
+  /** A record did not fit: unlike {@link #recordDrop()}, this breaks ENTER/EXIT pairing */
+  private void recordLoss() {
+    recordDrop();
+    lost.lazySet(lost.get() + 1);
+  }
+
+  private void releaseSpillSlot(int offset) {
+    // Counted before the slot is published, so the drain never reads more than was spilled
+    spilled.lazySet(spilled.get() + 1);
+    spill.release(offset);
+  }
+
+  /** The drain read back one record this ring spilled (consumer thread only) */
+  void spillConsumed() {
+    spillConsumed.lazySet(spillConsumed.get() + 1);
+  }
+
+  /** Count an event the producer chose not to record (producer thread only) */
+  void recordDrop() {
+    dropped.lazySet(dropped.get() + 1);
+  }
+
+  /**
+   * Copy everything published so far into {@code out} (consumer thread only)
+   *
+   * <p>Records lost since the previous drain are flagged on the batch, so the analyzer can drop
+   * the frames this ring left open.
+   */
+  int drainTo(EventBatch out) {
+    long l = lost.get();
+    if (l != lostReported) {
+      lostReported = l;
+      out.markLoss(id);
+    }
+
+    long h = head.get();
+    long t = tail.get();
+    int count = (int) (t - h);
+    if (count == 0) {
+      return 0;
+    }
+
+    // At most two bulk copies: up to the end of the ring, then the wrapped part
+    out.beginSegment(id);
+    int start = (int) h & mask;
+    int first = Math.min(count, capacity - start);
+    out.append(records, start, first);
+    if (first < count) {
+      out.append(records, 0, count - first);
+    }
+
+    // Single release for the whole batch
+    head.lazySet(t);
+    return count;
+  }
+
+  int size() {
+    return (int) (tail.get() - head.get());
+  }
+
+  int id() {
+    return id;
+  }
+
+  int capacity() {
+    return capacity;
+  }
+
+  /** Total events ever accepted, into the ring or the spill */
+  long written() {
+    return tail.get() + spilled.get();
+  }
+
+  long spilled() {
+    return spilled.get();
+  }
+
+  long dropped() {
+    return dropped.get();
+  }
+
+  /** True once the owning thread has terminated and nothing is left to drain */
+  boolean isRetired() {
+    return owner != null
+        && !owner.isAlive()
+        && size() == 0
+        && spillConsumed.get() == spilled.get();
+  }
+}
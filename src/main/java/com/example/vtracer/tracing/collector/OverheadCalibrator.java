@@ -0,0 +1,108 @@
+package com.example.vtracer.tracing.collector;
+
+import com.example.vtracer.config.VTracerConfig;
+import com.example.vtracer.tracing.sampling.OverheadEstimator;
+import com.example.vtracer.tracing.sampling.Sampler;
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Measures the per-call cost of the advice and collector hot path on the current hardware
+ *
+ * <p>Runs a private collector through the same steps the advice takes, once with every trace
+ * sampled and once with every trace skipped: the advice's context lookup, then the collector's
+ * enter/exit calls. Each round records one trace whose nested calls fit in a ring, so the measured
+ * path never hits the overflow shortcut. The median round is used to shed GC and scheduling
+ * outliers.
+ *
+ * <p>Duration filters are cleared, so every calibration call writes its records as a kept call
+ * would. JFR mode is measured with span rings instead, so calibration calls stay out of the
+ * recording.
+ */
+final class OverheadCalibrator {
+
+  private static final int ROUNDS = 60;
+  private static final int WARMUP_ROUNDS = 20;
+  private static final int CALIBRATION_METHOD_ID = 0;
+
+  private OverheadCalibrator() {}
+
+  /**
+   * @param adviceLookup the advice's check before each collector call: the agent context is set
+   *     and running
+   */
+  static void calibrate(
+      OverheadEstimator estimator, VTracerConfig config, BooleanSupplier adviceLookup) {
+    VTracerConfig.Builder builder = config.toBuilder().noMinDuration();
+    if (config.getCollectorMode() == VTracerConfig.CollectorMode.JFR) {
+      builder.collectorMode(VTracerConfig.CollectorMode.SPANS);
+    }
+    VTracerConfig unfiltered = builder.build();
+    double traced =
+        measure(new CallTreeCollector(unfiltered, FixedSampler.ALWAYS, null), adviceLookup);
+    double skipped =
+        measure(new CallTreeCollector(unfiltered, FixedSampler.NEVER, null), adviceLookup);
+    estimator.calibrate(traced, skipped);
+  }
+
+  /** Median nanoseconds per enter/exit pair */
+  private static double measure(CallTreeCollector collector, BooleanSupplier adviceLookup) {
+    // Records per call, plus the root's own
+    int calls = Math.max(1, collector.getBufferCapacity() / collector.getRecordsPerCall() - 1);
+    double[] costs = new double[ROUNDS - WARMUP_ROUNDS];
+
+    for (int round = 0; round < ROUNDS; round++) {
+      collector.onMethodEnter(CALIBRATION_METHOD_ID);
+
+      long start = System.nanoTime();
+      for (int i = 0; i < calls; i++) {
+        // As the advice: look up the context on entry and again on the tracked exit. Its
+        // answer is ignored so every call is measured; the volatile reads still happen.
+        adviceLookup.getAsBoolean();
+        collector.onMethodEnter(CALIBRATION_METHOD_ID);
+        adviceLookup.getAsBoolean();
+        collector.onMethodExit();
+      }
+      long elapsed = System.nanoTime() - start;
+
+      collector.onMethodExit();
+      collector.drain();
+
+      if (round >= WARMUP_ROUNDS) {
+        costs[round - WARMUP_ROUNDS] = (double) elapsed / calls;
+      }
+    }
+
+    collector.cleanup();
+
+    Arrays.sort(costs);
+    return costs[costs.length / 2];
+  }
+
+  /** Sampler with a fixed decision */
+  private enum FixedSampler implements Sampler {
+    ALWAYS(1.0),
+    NEVER(0.0);
+
+    private final double rate;
+
+    FixedSampler(double rate) {
+      this.rate = rate;
+    }
+
+    @Override
+    public boolean shouldSample(int stackDepth) {
+      return rate > 0.0;
+    }
+
+    @Override
+    public void adjust(double measuredOverhead) {
+      // Fixed
+    }
+
+    @Override
+    public double getSampleRate() {
+      return rate;
+    }
+  }
+}
@@ -0,0 +1,159 @@
+package com.example.vtracer.tracing.collector;
+
+import com.example.vtracer.tracing.model.EventBatch;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+
+/**
+ * Memory-mapped overflow tier shared by all rings
+ *
+ * <p>The file is split in two halves. Producers append to the active half with one atomic claim
+ * per record; each slot is the record followed by the ID of the ring it overflowed from. A drain
+ * flips the active half, waits for writers still inside the old one, and then reads it without
+ * further coordination.
+ *
+ * <p>A ring that overflows keeps spilling until everything it spilled has been drained (see {@link
+ * EventRingBuffer}), so reading rings first and then the spill keeps every source in order.
+ */
+final class SpillFile {
+
+  // Mapped buffers are int-indexed
+  static final long MAX_BYTES = 1L << 30;
+
+  private static final int HEADER_BYTES = 8;
+
+  private final Path path;
+  private final ByteBuffer buffer;
+  private final int recordBytes;
+  private final int slotBytes;
+  private final long halfBytes;
+  // Whole slots that fit in a half
+  private final long slotsPerHalf;
+
+  private volatile int activeHalf;
+  private final AtomicLong[] positions;
+  private final AtomicInteger[] writers;
+
+  SpillFile(Path path, long sizeBytes, int recordBytes) throws IOException {
+    long size = Math.min(sizeBytes, MAX_BYTES);
+    this.path = path;
+    this.recordBytes = recordBytes;
+    this.slotBytes = recordBytes + HEADER_BYTES;
+    this.halfBytes = size / 2;
+    this.slotsPerHalf = halfBytes / slotBytes;
+    if (slotsPerHalf == 0) {
+      throw new IllegalArgumentException("Spill file too small: " + sizeBytes + " bytes");
+    }
+
+    Files.createDirectories(path.toAbsolutePath().getParent());
+    try (FileChannel channel =
+        FileChannel.open(
+            path,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      // The mapping stays valid after the channel is closed
+      this.buffer =
+          channel
+              .map(FileChannel.MapMode.READ_WRITE, 0, halfBytes * 2)
+              .order(ByteOrder.nativeOrder());
+    }
+
+    this.activeHalf = 0;
+    this.positions = new AtomicLong[] {new AtomicLong(0), new AtomicLong(0)};
+    this.writers = new AtomicInteger[] {new AtomicInteger(0), new AtomicInteger(0)};
+  }
+
+  /**
+   * Reserve a slot for one record of {@code sourceId}
+   *
+   * @return byte offset to write the record at, followed by {@link #release(int)}; or -1 if the
+   *     active half is full (nothing to release)
+   */
+  int acquire(int sourceId) {
+    int half;
+    while (true) {
+      half = activeHalf;
+      writers[half].incrementAndGet();
+      if (activeHalf == half) {
+        break;
+      }
+      // Flipped meanwhile - the drain may already be reading this half
+      writers[half].decrementAndGet();
+    }
+
+    long slot = positions[half].getAndIncrement();
+    if (slot >= slotsPerHalf) {
+      writers[half].decrementAndGet();
+      return -1;
+    }
+
+    int offset = (int) (half * halfBytes + slot * slotBytes);
+    buffer.putInt(offset + recordBytes, sourceId);
+    return offset;
+  }
+
+  /** Publish a slot returned by {@link #acquire(int)} once its record is written */
+  void release(int offset) {
+    writers[offset < halfBytes ? 0 : 1].decrementAndGet();
+  }
+
+  ByteBuffer buffer() {
+    return buffer;
+  }
+
+  /**
+   * Make the other half active and wait until no producer is still writing to this one (consumer
+   * only)
+   *
+   * @return the half to pass to {@link #drainTo(int, EventBatch, IntConsumer)}
+   */
+  int flip() {
+    int half = activeHalf;
+    activeHalf = 1 - half;
+    while (writers[half].get() != 0) {
+      Thread.onSpinWait();
+    }
+    return half;
+  }
+
+  /**
+   * Append every record of a flipped half to {@code out} and empty it (consumer only)
+   *
+   * @param onRecord told the source ID of each record read
+   * @return records read
+   */
+  int drainTo(int half, EventBatch out, IntConsumer onRecord) {
+    int count = (int) Math.min(positions[half].get(), slotsPerHalf);
+    int base = (int) (half * halfBytes);
+
+    for (int i = 0; i < count; i++) {
+      int offset = base + i * slotBytes;
+      int sourceId = buffer.getInt(offset + recordBytes);
+      out.beginSegment(sourceId);
+      out.appendRecord(buffer, offset);
+      onRecord.accept(sourceId);
+    }
+
+    positions[half].set(0);
+    return count;
+  }
+
+  /** Remove the file; the mapping is released once unreachable */
+  void delete() {
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      System.err.println("[VTracer] Failed to delete spill file " + path + ": " + e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package com.example.vtracer.tracing.jfr;
+
+import com.example.vtracer.tracing.model.MethodRegistry;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+
+/**
+ * Owns the JFR recording that method spans are committed to (JFR collector mode)
+ *
+ * <p>JFR provides the thread-local buffers, timestamps and binary file that the ring pipeline
+ * implements by hand. The recording is written to its destination file when stopped.
+ */
+public class JfrRecorder {
+
+  private final MethodRegistry registry;
+  private final Path destination;
+  private final long minDurationNanos;
+  private final long maxSizeBytes;
+  private final long maxAgeNanos;
+  private final Runnable nameHook;
+  private Recording recording;
+
+  /** @param maxAgeNanos 0 for no age limit */
+  public JfrRecorder(
+      MethodRegistry registry,
+      Path destination,
+      long minDurationNanos,
+      long maxSizeBytes,
+      long maxAgeNanos) {
+    this.registry = registry;
+    this.destination = destination;
+    this.minDurationNanos = minDurationNanos;
+    this.maxSizeBytes = maxSizeBytes;
+    this.maxAgeNanos = maxAgeNanos;
+    this.nameHook = this::emitNames;
+  }
+
+  public synchronized void start() throws IOException {
+    Files.createDirectories(destination.toAbsolutePath().getParent());
+    FlightRecorder.register(MethodSpanEvent.class);
+    FlightRecorder.addPeriodicEvent(MethodNameEvent.class, nameHook);
+
+    recording = new Recording();
+    recording.setName("VTracer");
+    recording.setToDisk(true);
+    recording.setMaxSize(maxSizeBytes);
+    if (maxAgeNanos > 0) {
+      recording.setMaxAge(Duration.ofNanos(maxAgeNanos));
+    }
+    recording.setDestination(destination);
+    recording.enable(MethodSpanEvent.NAME).with("minDuration", minDurationNanos + " ns");
+    recording.enable(MethodNameEvent.NAME);
+    recording.start();
+    System.out.println("[VTracer] Recording method spans to " + destination);
+  }
+
+  private void emitNames() {
+    int size = registry.size();
+    for (int methodId = 0; methodId < size; methodId++) {
+      new MethodNameEvent(
+              methodId, registry.getClassName(methodId), registry.getMethodName(methodId))
+          .commit();
+    }
+  }
+
+  /**
+   * Stop recording and write the file
+   *
+   * @return the written file, or null if the recording was not running
+   */
+  public synchronized Path stop() {
+    if (recording == null) {
+      return null;
+    }
+    recording.stop();
+    recording.close();
+    recording = null;
+    FlightRecorder.removePeriodicEvent(nameHook);
+    return destination;
+  }
+}
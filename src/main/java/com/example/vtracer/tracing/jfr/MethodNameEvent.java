@@ -0,0 +1,39 @@
+package com.example.vtracer.tracing.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+/**
+ * Names of one method ID, written at the end of every chunk
+ *
+ * <p>Span events carry only IDs; these let a reader resolve them from the file alone.
+ */
+@Name(MethodNameEvent.NAME)
+@Label("Method Name")
+@Category("VTracer")
+@Description("Class and method name of an instrumented method ID")
+@StackTrace(false)
+@Period("endChunk")
+public class MethodNameEvent extends jdk.jfr.Event {
+
+  public static final String NAME = "com.example.vtracer.MethodName";
+
+  @Label("Method ID")
+  int methodId;
+
+  @Label("Class")
+  String className;
+
+  @Label("Method")
+  String methodName;
+
+  MethodNameEvent(int methodId, String className, String methodName) {
+    this.methodId = methodId;
+    this.className = className;
+    this.methodName = methodName;
+  }
+}
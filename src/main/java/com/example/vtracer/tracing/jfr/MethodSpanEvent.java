@@ -0,0 +1,70 @@
+package com.example.vtracer.tracing.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.SettingDefinition;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * One completed traced call, committed to JFR at exit (JFR collector mode)
+ *
+ * <p>Carries the same fields as a SPAN record. The call is timed by the collector, not by {@link
+ * #begin()}/{@link #end()}, so JFR's own threshold does not apply; the {@code minDuration} setting
+ * filters on {@link #elapsed} instead ({@code duration} is reserved by JFR). Fields are ints and
+ * longs only and no stack trace is taken, so a commit is a copy into JFR's thread-local buffer.
+ */
+@Name(MethodSpanEvent.NAME)
+@Label("Method Span")
+@Category("VTracer")
+@Description("Completed call of an instrumented method")
+@StackTrace(false)
+@Enabled(false)
+public class MethodSpanEvent extends jdk.jfr.Event {
+
+  public static final String NAME = "com.example.vtracer.MethodSpan";
+
+  @Label("Method ID")
+  int methodId;
+
+  @Label("Parent Method ID")
+  int parentMethodId;
+
+  @Label("Depth")
+  int depth;
+
+  @Label("Start")
+  @Description("System.nanoTime() at entry")
+  long startNanos;
+
+  @Label("Elapsed")
+  @Timespan(Timespan.NANOSECONDS)
+  long elapsed;
+
+  /** Commit one call if the event is enabled and long enough */
+  public static void emit(
+      int methodId, int parentMethodId, int depth, long startNanos, long duration) {
+    MethodSpanEvent event = new MethodSpanEvent();
+    if (!event.isEnabled()) {
+      return;
+    }
+    event.methodId = methodId;
+    event.parentMethodId = parentMethodId;
+    event.depth = depth;
+    event.startNanos = startNanos;
+    event.elapsed = duration;
+    if (event.shouldCommit()) {
+      event.commit();
+    }
+  }
+
+  @Name("minDuration")
+  @Label("Minimum Duration")
+  @SettingDefinition
+  protected boolean minDuration(MinDurationSetting setting) {
+    return elapsed >= setting.getNanos();
+  }
+}
@@ -0,0 +1,54 @@
+package com.example.vtracer.tracing.jfr;
+
+import com.example.vtracer.util.TimeUtils;
+import java.util.Set;
+import jdk.jfr.SettingControl;
+
+/**
+ * JFR setting holding the minimum duration of a {@link MethodSpanEvent}
+ *
+ * <p>Values look like "500 us" or "1ms". When several recordings set it, the lowest wins so every
+ * recording gets at least the calls it asked for.
+ */
+public class MinDurationSetting extends SettingControl {
+
+  private volatile long nanos;
+  private String value = "0 ns";
+
+  @Override
+  public String combine(Set<String> values) {
+    String lowest = "0 ns";
+    long lowestNanos = Long.MAX_VALUE;
+    for (String candidate : values) {
+      long candidateNanos = parse(candidate);
+      if (candidateNanos < lowestNanos) {
+        lowest = candidate;
+        lowestNanos = candidateNanos;
+      }
+    }
+    return lowest;
+  }
+
+  @Override
+  public void setValue(String value) {
+    this.nanos = parse(value);
+    this.value = value;
+  }
+
+  @Override
+  public String getValue() {
+    return value;
+  }
+
+  long getNanos() {
+    return nanos;
+  }
+
+  private static long parse(String value) {
+    try {
+      return TimeUtils.parseNanos(value.replace(" ", ""));
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+}
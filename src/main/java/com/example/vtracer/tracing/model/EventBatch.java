@@ -0,0 +1,213 @@
+package com.example.vtracer.tracing.model;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Drained trace events as contiguous {@link TraceEvent} records in off-heap memory
+ *
+ * <p>Read by index - no object is created per event. The collector reuses one batch, so its
+ * contents are valid only until the next drain.
+ *
+ * <p>A batch holds one record layout: ENTER/EXIT events, or SPAN records in span mode.
+ *
+ * <p>Records are grouped in segments, one per source ring. A source holds complete traces in
+ * order, so call stacks are rebuilt per source: events of one thread may be spread over several
+ * sources when virtual threads lease rings.
+ *
+ * <p>A batch also lists the sources that lost records to a full buffer since their previous
+ * drain, whose open frames can no longer be trusted, and the sources drained for the last time.
+ */
+public class EventBatch {
+
+  private static final int INITIAL_SEGMENTS = 64;
+
+  private final int recordBytes;
+  private ByteBuffer records;
+  private int size;
+
+  private int[] segmentStarts;
+  private int[] segmentSources;
+  private int segmentCount;
+
+  private int[] lossySources;
+  private int lossyCount;
+  private int[] endedSources;
+  private int endedCount;
+
+  public EventBatch(int initialCapacity) {
+    this(initialCapacity, TraceEvent.BYTES);
+  }
+
+  /**
+   * @param recordBytes {@link TraceEvent#BYTES} or {@link TraceEvent#SPAN_BYTES}
+   */
+  public EventBatch(int initialCapacity, int recordBytes) {
+    this.recordBytes = recordBytes;
+    this.records = allocate(Math.max(1, initialCapacity), recordBytes);
+    this.size = 0;
+    this.segmentStarts = new int[INITIAL_SEGMENTS];
+    this.segmentSources = new int[INITIAL_SEGMENTS];
+    this.segmentCount = 0;
+    this.lossySources = new int[INITIAL_SEGMENTS];
+    this.endedSources = new int[INITIAL_SEGMENTS];
+  }
+
+  /** Start a segment; following records come from {@code sourceId} */
+  public void beginSegment(int sourceId) {
+    if (segmentCount > 0 && segmentSources[segmentCount - 1] == sourceId) {
+      return;
+    }
+    if (segmentCount == segmentStarts.length) {
+      segmentStarts = Arrays.copyOf(segmentStarts, segmentCount * 2);
+      segmentSources = Arrays.copyOf(segmentSources, segmentCount * 2);
+    }
+    segmentStarts[segmentCount] = size;
+    segmentSources[segmentCount] = sourceId;
+    segmentCount++;
+  }
+
+  /** Append {@code count} records from {@code source}, starting at record index {@code from} */
+  public void append(ByteBuffer source, int from, int count) {
+    ensureCapacity(size + count);
+    records.put(size * recordBytes, source, from * recordBytes, count * recordBytes);
+    size += count;
+  }
+
+  /** Append one record stored at byte offset {@code offset} of {@code source} */
+  public void appendRecord(ByteBuffer source, int offset) {
+    ensureCapacity(size + 1);
+    records.put(size * recordBytes, source, offset, recordBytes);
+    size++;
+  }
+
+  /** Record that {@code sourceId} dropped records since its previous drain */
+  public void markLoss(int sourceId) {
+    if (lossyCount == lossySources.length) {
+      lossySources = Arrays.copyOf(lossySources, lossyCount * 2);
+    }
+    lossySources[lossyCount++] = sourceId;
+  }
+
+  /** Record that {@code sourceId} will not appear in any later batch */
+  public void markEnded(int sourceId) {
+    if (endedCount == endedSources.length) {
+      endedSources = Arrays.copyOf(endedSources, endedCount * 2);
+    }
+    endedSources[endedCount++] = sourceId;
+  }
+
+  public void clear() {
+    size = 0;
+    segmentCount = 0;
+    lossyCount = 0;
+    endedCount = 0;
+  }
+
+  public int getSegmentCount() {
+    return segmentCount;
+  }
+
+  /** First record index of a segment */
+  public int getSegmentStart(int segment) {
+    return segmentStarts[segment];
+  }
+
+  /** Record index just past the end of a segment */
+  public int getSegmentEnd(int segment) {
+    return segment + 1 < segmentCount ? segmentStarts[segment + 1] : size;
+  }
+
+  public int getSegmentSource(int segment) {
+    return segmentSources[segment];
+  }
+
+  /** True if the source dropped records since its previous drain */
+  public boolean hasLoss(int sourceId) {
+    for (int i = 0; i < lossyCount; i++) {
+      if (lossySources[i] == sourceId) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public int getEndedCount() {
+    return endedCount;
+  }
+
+  public int getEndedSource(int index) {
+    return endedSources[index];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /** True if this batch holds SPAN records rather than ENTER/EXIT pairs */
+  public boolean holdsSpans() {
+    return recordBytes == TraceEvent.SPAN_BYTES;
+  }
+
+  public long getThreadId(int index) {
+    return records.getLong(index * recordBytes + TraceEvent.THREAD_ID_OFFSET);
+  }
+
+  /** Event time, or start time of a SPAN */
+  public long getTimestamp(int index) {
+    return records.getLong(index * recordBytes + TraceEvent.TIMESTAMP_OFFSET);
+  }
+
+  public int getMethodId(int index) {
+    return records.getInt(index * recordBytes + TraceEvent.METHOD_ID_OFFSET);
+  }
+
+  public TraceEvent.Type getType(int index) {
+    return TraceEvent.typeOf(records.getInt(index * recordBytes + TraceEvent.TYPE_OFFSET));
+  }
+
+  /** SPAN records only */
+  public long getDuration(int index) {
+    return records.getLong(index * recordBytes + TraceEvent.DURATION_OFFSET);
+  }
+
+  /** SPAN records only */
+  public int getParentMethodId(int index) {
+    return records.getInt(index * recordBytes + TraceEvent.PARENT_METHOD_ID_OFFSET);
+  }
+
+  /** SPAN records only */
+  public int getDepth(int index) {
+    return records.getInt(index * recordBytes + TraceEvent.DEPTH_OFFSET);
+  }
+
+  public boolean isEnter(int index) {
+    return getType(index) == TraceEvent.Type.ENTER;
+  }
+
+  public boolean isExit(int index) {
+    return getType(index) == TraceEvent.Type.EXIT;
+  }
+
+  private void ensureCapacity(int required) {
+    int capacity = records.capacity() / recordBytes;
+    if (required <= capacity) {
+      return;
+    }
+
+    int newCapacity = Math.max(required, capacity * 2);
+    ByteBuffer grown = allocate(newCapacity, recordBytes);
+    grown.put(0, records, 0, size * recordBytes);
+    records = grown;
+  }
+
+  /** Allocate a native-order direct buffer for {@code capacity} records */
+  public static ByteBuffer allocate(int capacity, int recordBytes) {
+    return ByteBuffer.allocateDirect(capacity * recordBytes).order(ByteOrder.nativeOrder());
+  }
+}
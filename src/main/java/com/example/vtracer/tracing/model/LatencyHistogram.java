@@ -0,0 +1,166 @@
+package com.example.vtracer.tracing.model;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Concurrent log-linear latency histogram
+ *
+ * <p>Each power of 2 is split into {@value #SUB_BUCKETS} linear buckets, so a recorded value is
+ * off by at most 12.5%. Values from 0 to about 4.9 hours fit in {@value #BUCKETS} buckets; longer
+ * ones land in the last bucket.
+ *
+ * <p>Recording is striped by thread ID over a few counter arrays to keep writers off each other's
+ * cache lines, and merged when read. A histogram starts with one stripe of {@value #BUCKETS}
+ * counters, about 2.7KB, and gives a thread slot its own stripe the first time that slot's write
+ * collides with another thread's, so a method only grows towards the 8-stripe maximum (about 21KB)
+ * when it is really recorded from several threads at once. Apart from that, {@link #record(long,
+ * long)} never allocates.
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_EXPONENT = 43;
+  static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+  // Power of 2, at most 8
+  private static final int STRIPES =
+      Integer.highestOneBit(Math.min(8, Runtime.getRuntime().availableProcessors()));
+
+  // Slot after the buckets holds the stripe's max
+  private static final int MAX_SLOT = BUCKETS;
+
+  // Slot 0 is shared by every thread slot without a stripe of its own; the rest start null
+  private final AtomicReferenceArray<AtomicLongArray> stripes;
+
+  public LatencyHistogram() {
+    this.stripes = new AtomicReferenceArray<>(STRIPES);
+    stripes.set(0, new AtomicLongArray(BUCKETS + 1));
+  }
+
+  /** Record one duration from the given thread */
+  public void record(long threadId, long nanos) {
+    int bucket = bucketOf(nanos);
+    int slot = (int) threadId & (STRIPES - 1);
+    AtomicLongArray stripe = stripes.get(slot);
+    if (stripe != null) {
+      stripe.getAndIncrement(bucket);
+    } else {
+      stripe = stripes.get(0);
+      long count = stripe.get(bucket);
+      if (!stripe.compareAndSet(bucket, count, count + 1)) {
+        // Contended: this slot writes to its own stripe from now on
+        stripe = stripeOf(slot);
+        stripe.getAndIncrement(bucket);
+      }
+    }
+
+    long max = stripe.get(MAX_SLOT);
+    while (nanos > max && !stripe.compareAndSet(MAX_SLOT, max, nanos)) {
+      max = stripe.get(MAX_SLOT);
+    }
+  }
+
+  private AtomicLongArray stripeOf(int slot) {
+    stripes.compareAndSet(slot, null, new AtomicLongArray(BUCKETS + 1));
+    return stripes.get(slot);
+  }
+
+  /** Merge all stripes into a point-in-time snapshot */
+  public Snapshot snapshot() {
+    long[] counts = new long[BUCKETS];
+    long max = 0;
+    for (int s = 0; s < STRIPES; s++) {
+      AtomicLongArray stripe = stripes.get(s);
+      if (stripe == null) {
+        continue;
+      }
+      for (int i = 0; i < BUCKETS; i++) {
+        counts[i] += stripe.get(i);
+      }
+      max = Math.max(max, stripe.get(MAX_SLOT));
+    }
+    return new Snapshot(counts, max);
+  }
+
+  /** Zero all buckets - a record racing with the reset may survive it */
+  public void reset() {
+    for (int s = 0; s < STRIPES; s++) {
+      AtomicLongArray stripe = stripes.get(s);
+      if (stripe == null) {
+        continue;
+      }
+      for (int i = 0; i <= BUCKETS; i++) {
+        stripe.set(i, 0);
+      }
+    }
+  }
+
+  static int bucketOf(long nanos) {
+    if (nanos < SUB_BUCKETS) {
+      return (int) Math.max(0, nanos);
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+    if (exponent > MAX_EXPONENT) {
+      return BUCKETS - 1;
+    }
+    int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  /** Highest value that falls into the bucket */
+  static long upperBoundOf(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    long subBucket = bucket % SUB_BUCKETS;
+    long width = 1L << (exponent - SUB_BUCKET_BITS);
+    return ((SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+  }
+
+  /** Merged counts of one histogram */
+  public static final class Snapshot {
+    private final long[] counts;
+    private final long count;
+    private final long max;
+
+    private Snapshot(long[] counts, long max) {
+      long total = 0;
+      for (long c : counts) {
+        total += c;
+      }
+      this.counts = counts;
+      this.count = total;
+      this.max = max;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getMax() {
+      return max;
+    }
+
+    /**
+     * Value at the given percentile (0-100), reported as its bucket's upper bound and never above
+     * the recorded max
+     */
+    public long getValueAtPercentile(double percentile) {
+      if (count == 0) {
+        return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return Math.min(upperBoundOf(i), max);
+        }
+      }
+      return max;
+    }
+  }
+}
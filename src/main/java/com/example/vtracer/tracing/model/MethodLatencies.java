@@ -0,0 +1,64 @@
+package com.example.vtracer.tracing.model;
+
+import java.util.Arrays;
+
+/**
+ * Latency histogram per method ID
+ *
+ * <p>A method's histogram is created on its first recorded exit and then reused for good, so memory
+ * is fixed per method that actually runs and steady-state recording never allocates.
+ */
+public class MethodLatencies {
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  // Indexed by method ID; replaced (never shrunk) when growing so readers need no lock
+  private volatile LatencyHistogram[] histograms;
+
+  public MethodLatencies() {
+    this.histograms = new LatencyHistogram[INITIAL_CAPACITY];
+  }
+
+  /** Record one call duration of a method */
+  public void record(int methodId, long threadId, long nanos) {
+    LatencyHistogram[] current = histograms;
+    LatencyHistogram histogram = methodId < current.length ? current[methodId] : null;
+    if (histogram == null) {
+      histogram = create(methodId);
+    }
+    histogram.record(threadId, nanos);
+  }
+
+  private synchronized LatencyHistogram create(int methodId) {
+    LatencyHistogram[] current = histograms;
+    if (methodId >= current.length) {
+      current = Arrays.copyOf(current, Math.max(methodId + 1, current.length * 2));
+    }
+    if (current[methodId] == null) {
+      current[methodId] = new LatencyHistogram();
+    }
+    // Volatile write publishes the new histogram
+    histograms = current;
+    return current[methodId];
+  }
+
+  /** Histogram of a method, or null if it never exited */
+  public LatencyHistogram get(int methodId) {
+    LatencyHistogram[] current = histograms;
+    return methodId >= 0 && methodId < current.length ? current[methodId] : null;
+  }
+
+  /** Zero every histogram; recording continues concurrently */
+  public void reset() {
+    for (LatencyHistogram histogram : histograms) {
+      if (histogram != null) {
+        histogram.reset();
+      }
+    }
+  }
+
+  /** Upper bound of the method IDs that may have a histogram */
+  public int capacity() {
+    return histograms.length;
+  }
+}
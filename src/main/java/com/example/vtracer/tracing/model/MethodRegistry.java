@@ -0,0 +1,94 @@
+package com.example.vtracer.tracing.model;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns a dense int ID to every instrumented method
+ *
+ * <p>IDs are handed out while a class is transformed and baked into its advice as constants, so the
+ * hot path only ever carries ints. Names are resolved here when a report is written.
+ */
+public class MethodRegistry {
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private final Map<String, Integer> idsBySignature;
+
+  // Indexed by method ID; replaced (never mutated in place) when growing so readers need no lock
+  private volatile String[] classNames;
+  private volatile String[] methodNames;
+  private volatile String[] signatures;
+  private int size;
+
+  public MethodRegistry() {
+    this.idsBySignature = new ConcurrentHashMap<>();
+    this.classNames = new String[INITIAL_CAPACITY];
+    this.methodNames = new String[INITIAL_CAPACITY];
+    this.signatures = new String[INITIAL_CAPACITY];
+    this.size = 0;
+  }
+
+  /** Get or assign the ID for a method - called at class transformation time */
+  public int register(String className, String methodName) {
+    String signature = className + "." + methodName;
+    Integer id = idsBySignature.get(signature);
+    if (id != null) {
+      return id;
+    }
+
+    synchronized (this) {
+      id = idsBySignature.get(signature);
+      if (id != null) {
+        return id;
+      }
+
+      int newId = size;
+      if (newId == signatures.length) {
+        int newCapacity = newId * 2;
+        classNames = Arrays.copyOf(classNames, newCapacity);
+        methodNames = Arrays.copyOf(methodNames, newCapacity);
+        signatures = Arrays.copyOf(signatures, newCapacity);
+      }
+
+      classNames[newId] = className;
+      methodNames[newId] = methodName;
+      signatures[newId] = signature;
+      size = newId + 1;
+
+      // Publish last so a visible ID always has its names written
+      idsBySignature.put(signature, newId);
+      return newId;
+    }
+  }
+
+  /** Look up an already assigned ID, or -1 */
+  public int getId(String className, String methodName) {
+    Integer id = idsBySignature.get(className + "." + methodName);
+    return id != null ? id : -1;
+  }
+
+  public String getSignature(int methodId) {
+    return lookup(signatures, methodId);
+  }
+
+  public String getClassName(int methodId) {
+    return lookup(classNames, methodId);
+  }
+
+  public String getMethodName(int methodId) {
+    return lookup(methodNames, methodId);
+  }
+
+  public int size() {
+    return idsBySignature.size();
+  }
+
+  private static String lookup(String[] names, int methodId) {
+    if (methodId < 0 || methodId >= names.length || names[methodId] == null) {
+      return "unknown#" + methodId;
+    }
+    return names[methodId];
+  }
+}
@@ -1,73 +1,100 @@
 package com.example.vtracer.tracing.model;
 
-/** Immutable trace event representing a method call */
-public class TraceEvent {
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed-width binary trace event record
+ *
+ * <p>Events never exist as objects: they are written straight into off-heap buffers and read back
+ * by index. Layout (native byte order, 24 bytes):
+ *
+ * <pre>
+ *   0  long threadId
+ *   8  long timestamp (System.nanoTime)
+ *  16  int  methodId  (MethodRegistry)
+ *  20  int  type      (Type ordinal)
+ * </pre>
+ *
+ * <p>SPAN records describe a completed call in one record and extend the same header to 40 bytes:
+ *
+ * <pre>
+ *  24  long duration (nanos; timestamp is the start)
+ *  32  int  parentMethodId (-1 for a root)
+ *  36  int  depth (0 for a root)
+ * </pre>
+ */
+public final class TraceEvent {
 
   public enum Type {
     ENTER,
-    EXIT
-  }
-
-  private final long threadId;
-  private final String className;
-  private final String methodName;
-  private final long timestamp;
-  private final Type type;
-
-  public TraceEvent(long threadId, String className, String methodName, long timestamp, Type type) {
-    this.threadId = threadId;
-    this.className = className;
-    this.methodName = methodName;
-    this.timestamp = timestamp;
-    this.type = type;
-  }
-
-  public static TraceEvent enter(
-      long threadId, String className, String methodName, long timestamp) {
-    return new TraceEvent(threadId, className, methodName, timestamp, Type.ENTER);
+    EXIT,
+    SPAN
   }
 
-  public static TraceEvent exit(
-      long threadId, String className, String methodName, long timestamp) {
-    return new TraceEvent(threadId, className, methodName, timestamp, Type.EXIT);
-  }
-
-  public long getThreadId() {
-    return threadId;
-  }
+  public static final int BYTES = 24;
+  public static final int SPAN_BYTES = 40;
 
-  public String getClassName() {
-    return className;
-  }
+  static final int THREAD_ID_OFFSET = 0;
+  static final int TIMESTAMP_OFFSET = 8;
+  static final int METHOD_ID_OFFSET = 16;
+  static final int TYPE_OFFSET = 20;
+  static final int DURATION_OFFSET = 24;
+  static final int PARENT_METHOD_ID_OFFSET = 32;
+  static final int DEPTH_OFFSET = 36;
 
-  public String getMethodName() {
-    return methodName;
-  }
+  private static final Type[] TYPES = Type.values();
 
-  public String getMethodSignature() {
-    return className + "." + methodName;
-  }
+  private TraceEvent() {}
 
-  public long getTimestamp() {
-    return timestamp;
+  /** Encode one ENTER/EXIT record at the given record index */
+  public static void write(
+      ByteBuffer buffer, int index, long threadId, int methodId, long timestamp, Type type) {
+    writeAt(buffer, index * BYTES, threadId, methodId, timestamp, type);
   }
 
-  public Type getType() {
-    return type;
+  /** Encode one ENTER/EXIT record at the given byte offset */
+  public static void writeAt(
+      ByteBuffer buffer, int offset, long threadId, int methodId, long timestamp, Type type) {
+    buffer.putLong(offset + THREAD_ID_OFFSET, threadId);
+    buffer.putLong(offset + TIMESTAMP_OFFSET, timestamp);
+    buffer.putInt(offset + METHOD_ID_OFFSET, methodId);
+    buffer.putInt(offset + TYPE_OFFSET, type.ordinal());
   }
 
-  public boolean isEnter() {
-    return type == Type.ENTER;
+  /** Encode one SPAN record at the given record index */
+  public static void writeSpan(
+      ByteBuffer buffer,
+      int index,
+      long threadId,
+      int methodId,
+      long startTime,
+      long duration,
+      int parentMethodId,
+      int depth) {
+    writeSpanAt(
+        buffer, index * SPAN_BYTES, threadId, methodId, startTime, duration, parentMethodId, depth);
   }
 
-  public boolean isExit() {
-    return type == Type.EXIT;
+  /** Encode one SPAN record at the given byte offset */
+  public static void writeSpanAt(
+      ByteBuffer buffer,
+      int offset,
+      long threadId,
+      int methodId,
+      long startTime,
+      long duration,
+      int parentMethodId,
+      int depth) {
+    buffer.putLong(offset + THREAD_ID_OFFSET, threadId);
+    buffer.putLong(offset + TIMESTAMP_OFFSET, startTime);
+    buffer.putInt(offset + METHOD_ID_OFFSET, methodId);
+    buffer.putInt(offset + TYPE_OFFSET, Type.SPAN.ordinal());
+    buffer.putLong(offset + DURATION_OFFSET, duration);
+    buffer.putInt(offset + PARENT_METHOD_ID_OFFSET, parentMethodId);
+    buffer.putInt(offset + DEPTH_OFFSET, depth);
   }
 
-  @Override
-  public String toString() {
-    return String.format(
-        "TraceEvent{thread=%d, method=%s.%s, type=%s, timestamp=%d}",
-        threadId, className, methodName, type, timestamp);
+  static Type typeOf(int ordinal) {
+    return TYPES[ordinal];
   }
 }
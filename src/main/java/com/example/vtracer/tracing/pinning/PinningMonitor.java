@@ -0,0 +1,121 @@
+package com.example.vtracer.tracing.pinning;
+
+import com.example.vtracer.tracing.model.MethodRegistry;
+import java.time.Duration;
+import java.util.List;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedMethod;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordedThread;
+import jdk.jfr.consumer.RecordingStream;
+
+/**
+ * Detects virtual thread pinning by streaming JFR {@code jdk.VirtualThreadPinned} events
+ *
+ * <p>The JVM emits the event when a virtual thread blocks while pinned to its carrier (inside
+ * {@code synchronized} or a native frame) for longer than the threshold. Events arrive on the
+ * stream's own thread, with the stack at the time of pinning; the innermost frame that belongs to
+ * an instrumented method links the pinning to our call trees.
+ *
+ * <p>The stream's buffered data is capped by size and age, and {@link PinningStats} caps the
+ * number of sites, so memory stays bounded however often pinning happens.
+ */
+public class PinningMonitor {
+
+  static final String EVENT_NAME = "jdk.VirtualThreadPinned";
+
+  // Frames kept per site key
+  private static final int SITE_FRAMES = 8;
+  private static final long MAX_STREAM_BYTES = 16L << 20;
+  private static final Duration MAX_STREAM_AGE = Duration.ofSeconds(30);
+
+  private final MethodRegistry registry;
+  private final PinningStats stats;
+  private final long thresholdNanos;
+  private RecordingStream stream;
+
+  public PinningMonitor(MethodRegistry registry, long thresholdNanos, int maxSites) {
+    this.registry = registry;
+    this.stats = new PinningStats(maxSites);
+    this.thresholdNanos = thresholdNanos;
+  }
+
+  /** Start streaming on a background thread - failure is logged, tracing goes on without it */
+  public synchronized void start() {
+    try {
+      stream = new RecordingStream();
+      stream.enable(EVENT_NAME).withThreshold(Duration.ofNanos(thresholdNanos)).withStackTrace();
+      stream.setMaxSize(MAX_STREAM_BYTES);
+      stream.setMaxAge(MAX_STREAM_AGE);
+      stream.onEvent(EVENT_NAME, this::onPinned);
+      stream.onError(e -> System.err.println("[VTracer] Pinning stream error: " + e.getMessage()));
+      stream.startAsync();
+      System.out.printf(
+          "[VTracer] JFR pinning detection enabled (threshold %dms)%n", thresholdNanos / 1_000_000);
+    } catch (RuntimeException e) {
+      System.err.println("[VTracer] Failed to start pinning detection: " + e.getMessage());
+      stream = null;
+    }
+  }
+
+  void onPinned(RecordedEvent event) {
+    long durationNanos = event.getDuration().toNanos();
+    RecordedThread thread = event.getThread();
+    String threadName = "unknown";
+    if (thread != null) {
+      // Virtual threads are usually unnamed
+      String name = thread.getJavaName();
+      threadName = name != null && !name.isEmpty() ? name : "#" + thread.getJavaThreadId();
+    }
+
+    StringBuilder frames = new StringBuilder();
+    int methodId = -1;
+    RecordedStackTrace stackTrace = event.getStackTrace();
+    if (stackTrace != null) {
+      List<RecordedFrame> stack = stackTrace.getFrames();
+      for (int i = 0; i < stack.size(); i++) {
+        RecordedFrame frame = stack.get(i);
+        RecordedMethod method = frame.getMethod();
+        if (method == null) {
+          continue;
+        }
+        String className = method.getType().getName();
+        if (i < SITE_FRAMES) {
+          if (frames.length() > 0) {
+            frames.append(';');
+          }
+          frames.append(className).append('.').append(method.getName());
+          if (frame.getLineNumber() > 0) {
+            frames.append(':').append(frame.getLineNumber());
+          }
+        }
+        if (methodId < 0) {
+          methodId = registry.getId(className, method.getName());
+        }
+        if (methodId >= 0 && i >= SITE_FRAMES) {
+          break;
+        }
+      }
+    }
+
+    if (stats.record(frames.toString(), methodId, threadName, durationNanos)) {
+      System.out.printf(
+          "[VTracer] Pinning detected: thread %s, %.1fms in %s%n",
+          threadName,
+          durationNanos / 1_000_000.0,
+          methodId >= 0 ? registry.getSignature(methodId) : "uninstrumented code");
+    }
+  }
+
+  public PinningStats getStats() {
+    return stats;
+  }
+
+  public synchronized void stop() {
+    if (stream != null) {
+      stream.close();
+      stream = null;
+    }
+  }
+}
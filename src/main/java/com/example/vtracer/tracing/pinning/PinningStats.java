@@ -0,0 +1,153 @@
+package com.example.vtracer.tracing.pinning;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Virtual thread pinnings aggregated by site
+ *
+ * <p>A site is the top of the pinned stack plus the innermost instrumented method on it. Each site
+ * keeps a count, total and max, and a coarse duration breakdown. The number of sites is capped;
+ * pinnings at new sites beyond the cap are only counted.
+ */
+public class PinningStats {
+
+  /** Upper bounds of the duration buckets; the last bucket is open-ended */
+  static final long[] BUCKET_BOUNDS_NANOS = {1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L};
+
+  static final String[] BUCKET_NAMES = {"under1ms", "under10ms", "under100ms", "under1s", "over1s"};
+
+  private final int maxSites;
+  private final Map<String, Site> sites;
+  private long overflowCount;
+
+  public PinningStats(int maxSites) {
+    this.maxSites = maxSites;
+    this.sites = new LinkedHashMap<>();
+  }
+
+  /**
+   * Add one pinning
+   *
+   * @param frames top stack frames, innermost first
+   * @param methodId innermost instrumented method on the stack, or -1
+   * @return true if this is the first pinning at its site
+   */
+  public synchronized boolean record(
+      String frames, int methodId, String threadName, long durationNanos) {
+    String key = methodId + "|" + frames;
+    Site site = sites.get(key);
+    boolean added = false;
+    if (site == null) {
+      if (sites.size() >= maxSites) {
+        overflowCount++;
+        return false;
+      }
+      site = new Site(frames, methodId);
+      sites.put(key, site);
+      added = true;
+    }
+    site.add(threadName, durationNanos);
+    return added;
+  }
+
+  /** Copies of all sites, most total pinned time first */
+  public synchronized List<Site> snapshot() {
+    List<Site> copy = new ArrayList<>(sites.size());
+    for (Site site : sites.values()) {
+      copy.add(site.copy());
+    }
+    copy.sort((a, b) -> Long.compare(b.totalNanos, a.totalNanos));
+    return copy;
+  }
+
+  /** Names of the duration buckets in {@link Site#getBuckets()} */
+  public static List<String> getBucketNames() {
+    return List.of(BUCKET_NAMES);
+  }
+
+  /** Pinnings not kept because the site cap was reached */
+  public synchronized long getOverflowCount() {
+    return overflowCount;
+  }
+
+  public synchronized long getTotalCount() {
+    long count = overflowCount;
+    for (Site site : sites.values()) {
+      count += site.count;
+    }
+    return count;
+  }
+
+  /** One pinning site */
+  public static final class Site {
+    private final String frames;
+    private final int methodId;
+    private final long[] buckets;
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+    private String lastThread;
+
+    private Site(String frames, int methodId) {
+      this.frames = frames;
+      this.methodId = methodId;
+      this.buckets = new long[BUCKET_NAMES.length];
+    }
+
+    private void add(String threadName, long durationNanos) {
+      int bucket = 0;
+      while (bucket < BUCKET_BOUNDS_NANOS.length && durationNanos >= BUCKET_BOUNDS_NANOS[bucket]) {
+        bucket++;
+      }
+      buckets[bucket]++;
+      count++;
+      totalNanos += durationNanos;
+      maxNanos = Math.max(maxNanos, durationNanos);
+      lastThread = threadName;
+    }
+
+    private Site copy() {
+      Site copy = new Site(frames, methodId);
+      System.arraycopy(buckets, 0, copy.buckets, 0, buckets.length);
+      copy.count = count;
+      copy.totalNanos = totalNanos;
+      copy.maxNanos = maxNanos;
+      copy.lastThread = lastThread;
+      return copy;
+    }
+
+    /** Top stack frames, innermost first, separated by ';' */
+    public String getFrames() {
+      return frames;
+    }
+
+    /** Innermost instrumented method on the pinned stack, or -1 */
+    public int getMethodId() {
+      return methodId;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getTotalNanos() {
+      return totalNanos;
+    }
+
+    public long getMaxNanos() {
+      return maxNanos;
+    }
+
+    public String getLastThread() {
+      return lastThread;
+    }
+
+    /** Pinning counts per duration bucket, named by {@link PinningStats#getBucketNames()} */
+    public long[] getBuckets() {
+      return buckets.clone();
+    }
+  }
+}
@@ -61,6 +61,14 @@ public class AdaptiveSampler implements Sampler {
     // Otherwise, maintain current rate
   }
 
+  /** Override the current rate; later adjustments continue from it */
+  public void setSampleRate(double rate) {
+    if (rate < 0.0 || rate > 1.0) {
+      throw new IllegalArgumentException("Sample rate must be between 0.0 and 1.0");
+    }
+    this.sampleRate = rate;
+  }
+
   @Override
   public double getSampleRate() {
     return sampleRate;
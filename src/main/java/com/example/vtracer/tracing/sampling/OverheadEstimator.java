@@ -0,0 +1,104 @@
+package com.example.vtracer.tracing.sampling;
+
+/**
+ * Estimates tracing overhead over the most recent window
+ *
+ * <p>Overhead = (traced calls x traced cost + skipped calls x skipped cost) / (window x CPUs). The
+ * per-call costs start as conservative defaults and are replaced by values measured on this
+ * machine once calibration has run.
+ *
+ * <p>Calls inside unsampled traces are not counted on the hot path. Since sampling is random per
+ * trace, they are extrapolated from the sampled traces' average size.
+ */
+public class OverheadEstimator {
+
+  // Used until calibration completes
+  private static final double DEFAULT_TRACED_CALL_NANOS = 100.0;
+  private static final double DEFAULT_SKIPPED_CALL_NANOS = 10.0;
+
+  private volatile double tracedCallNanos;
+  private volatile double skippedCallNanos;
+  private volatile boolean calibrated;
+  private volatile double lastOverhead;
+
+  private long windowStart;
+  private long lastTracedCalls;
+  private long lastSampledTraces;
+  private long lastSkippedTraces;
+
+  public OverheadEstimator() {
+    this.tracedCallNanos = DEFAULT_TRACED_CALL_NANOS;
+    this.skippedCallNanos = DEFAULT_SKIPPED_CALL_NANOS;
+    this.calibrated = false;
+    this.lastOverhead = 0.0;
+    this.windowStart = System.nanoTime();
+  }
+
+  /** Install per-call costs measured on the current hardware */
+  public void calibrate(double tracedCallNanos, double skippedCallNanos) {
+    this.tracedCallNanos = Math.max(1.0, tracedCallNanos);
+    this.skippedCallNanos = Math.max(0.0, skippedCallNanos);
+    this.calibrated = true;
+  }
+
+  /**
+   * Close the current window and start a new one
+   *
+   * @param tracedCalls cumulative calls recorded in sampled traces
+   * @param sampledTraces cumulative traces the sampler accepted
+   * @param skippedTraces cumulative traces the sampler rejected
+   * @return overhead as fraction of total CPU over the window, or NaN if nothing was called
+   */
+  public synchronized double update(long tracedCalls, long sampledTraces, long skippedTraces) {
+    long now = System.nanoTime();
+    long windowNanos = now - windowStart;
+
+    long traced = tracedCalls - lastTracedCalls;
+    long sampled = sampledTraces - lastSampledTraces;
+    long skipped = skippedTraces - lastSkippedTraces;
+
+    windowStart = now;
+    lastTracedCalls = tracedCalls;
+    lastSampledTraces = sampledTraces;
+    lastSkippedTraces = skippedTraces;
+
+    if (windowNanos <= 0 || sampled + skipped == 0) {
+      return Double.NaN;
+    }
+
+    // Every trace was skipped: assume single-call traces rather than guessing their size
+    double callsPerTrace = sampled > 0 ? (double) traced / sampled : 1.0;
+    double skippedCalls = skipped * callsPerTrace;
+
+    double overheadNanos = traced * tracedCallNanos + skippedCalls * skippedCallNanos;
+    double capacityNanos = (double) windowNanos * Runtime.getRuntime().availableProcessors();
+
+    lastOverhead = overheadNanos / capacityNanos;
+    return lastOverhead;
+  }
+
+  /** Start a new window from zeroed counters, before the collector resets its own */
+  public synchronized void reset() {
+    windowStart = System.nanoTime();
+    lastTracedCalls = 0;
+    lastSampledTraces = 0;
+    lastSkippedTraces = 0;
+  }
+
+  /** Overhead measured over the last completed window */
+  public double getLastOverhead() {
+    return lastOverhead;
+  }
+
+  public double getTracedCallNanos() {
+    return tracedCallNanos;
+  }
+
+  public double getSkippedCallNanos() {
+    return skippedCallNanos;
+  }
+
+  public boolean isCalibrated() {
+    return calibrated;
+  }
+}
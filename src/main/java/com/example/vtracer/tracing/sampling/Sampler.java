@@ -4,7 +4,7 @@ package com.example.vtracer.tracing.sampling;
 public interface Sampler {
 
   /**
-   * Decide whether to sample this call
+   * Decide whether to sample this call - asked once per trace, at its outermost frame
    *
    * @param stackDepth current stack depth
    * @return true if should sample, false otherwise
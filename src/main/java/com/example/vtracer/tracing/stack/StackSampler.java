@@ -0,0 +1,127 @@
+package com.example.vtracer.tracing.stack;
+
+import com.example.vtracer.analysis.flamegraph.model.FlameNode;
+import com.example.vtracer.tracing.model.MethodRegistry;
+import java.time.Duration;
+import java.util.List;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedMethod;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+
+/**
+ * Stack-sampling engine fed by JFR {@code jdk.ExecutionSample} events
+ *
+ * <p>The JVM samples the stacks of threads running Java code once per interval, so the cost
+ * depends on the interval and the number of running threads, never on the call rate. Each sample
+ * adds one interval of time to its stack's leaf in a {@link FlameNode} tree, the same shape the
+ * aggregate collector produces, which {@link #drainProfile()} hands to the reporters.
+ *
+ * <p>Sampled methods, JDK internals included, are given IDs in the {@link MethodRegistry} passed
+ * in: the agent's own one when samples are the reported profile, a private one when they only
+ * feed hot-path selection, so instrumented method IDs are not mixed with every frame ever sampled.
+ * Samples taken while the agent itself is running are dropped. The profile is replaced on every
+ * drain and the stream's buffer is capped by size and age, so memory stays bounded.
+ */
+public class StackSampler {
+
+  static final String EVENT_NAME = "jdk.ExecutionSample";
+
+  private static final String AGENT_PACKAGE = "com.example.vtracer.";
+  private static final long MAX_STREAM_BYTES = 16L << 20;
+  private static final Duration MAX_STREAM_AGE = Duration.ofSeconds(30);
+
+  private final long intervalNanos;
+  private final MethodRegistry registry;
+  private RecordingStream stream;
+
+  // Guarded by this; replaced on each drain
+  private FlameNode profile;
+  private long totalSamples;
+
+  public StackSampler(long intervalNanos, MethodRegistry registry) {
+    this.intervalNanos = intervalNanos;
+    this.registry = registry;
+    this.profile = FlameNode.root();
+  }
+
+  /** Start streaming on a background thread - failure is logged and leaves the profile empty */
+  public synchronized void start() {
+    try {
+      stream = new RecordingStream();
+      stream.enable(EVENT_NAME).withPeriod(Duration.ofNanos(intervalNanos)).withStackTrace();
+      stream.setMaxSize(MAX_STREAM_BYTES);
+      stream.setMaxAge(MAX_STREAM_AGE);
+      stream.onEvent(EVENT_NAME, this::onSample);
+      stream.onError(e -> System.err.println("[VTracer] Sampling stream error: " + e.getMessage()));
+      stream.startAsync();
+      System.out.printf("[VTracer] Stack sampling every %.1fms%n", intervalNanos / 1_000_000.0);
+    } catch (RuntimeException e) {
+      System.err.println("[VTracer] Failed to start stack sampling: " + e.getMessage());
+      stream = null;
+    }
+  }
+
+  void onSample(RecordedEvent event) {
+    RecordedStackTrace stackTrace = event.getStackTrace();
+    if (stackTrace != null) {
+      record(stackTrace.getFrames());
+    }
+  }
+
+  /** Add one sample; {@code frames} are innermost first, as JFR records them */
+  synchronized void record(List<RecordedFrame> frames) {
+    for (RecordedFrame frame : frames) {
+      RecordedMethod method = frame.getMethod();
+      if (method != null && method.getType().getName().startsWith(AGENT_PACKAGE)) {
+        return;
+      }
+    }
+
+    FlameNode node = profile;
+    for (int i = frames.size() - 1; i >= 0; i--) {
+      RecordedMethod method = frames.get(i).getMethod();
+      if (method != null) {
+        int methodId = registry.register(method.getType().getName(), method.getName());
+        node = node.getOrCreateChild(methodId);
+      }
+    }
+    if (node != profile) {
+      node.addSelfTime(intervalNanos);
+      totalSamples++;
+    }
+  }
+
+  /**
+   * Take the samples gathered since the previous drain
+   *
+   * @return synthetic root of the sampled stacks, each leaf weighted by samples x interval
+   */
+  public synchronized FlameNode drainProfile() {
+    FlameNode drained = profile;
+    profile = FlameNode.root();
+    return drained;
+  }
+
+  /** Samples recorded since start */
+  public synchronized long getTotalSamples() {
+    return totalSamples;
+  }
+
+  /** Registry the profile's method IDs resolve through */
+  public MethodRegistry getRegistry() {
+    return registry;
+  }
+
+  public long getIntervalNanos() {
+    return intervalNanos;
+  }
+
+  public synchronized void stop() {
+    if (stream != null) {
+      stream.close();
+      stream = null;
+    }
+  }
+}
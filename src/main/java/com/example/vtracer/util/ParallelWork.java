@@ -0,0 +1,58 @@
+package com.example.vtracer.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+/** Splits a list into chunks processed on a fork/join pool */
+public class ParallelWork {
+
+  // Chunks per worker, so uneven chunks still keep every worker busy
+  private static final int CHUNKS_PER_WORKER = 4;
+
+  /**
+   * Apply {@code task} to consecutive chunks of {@code items}
+   *
+   * <p>Runs inline on the calling thread when the pool is null or shut down, or the items fit in
+   * one chunk. Chunks the pool rejects because it shut down meanwhile also run on the calling
+   * thread.
+   *
+   * @param minChunkSize fewest items worth a task of their own
+   * @return one result per chunk, in item order
+   */
+  public static <T, R> List<R> map(
+      ForkJoinPool pool, List<T> items, int minChunkSize, Function<List<T>, R> task) {
+    int chunks =
+        pool == null || pool.isShutdown()
+            ? 1
+            : Math.min(pool.getParallelism() * CHUNKS_PER_WORKER, items.size() / minChunkSize);
+    if (chunks <= 1) {
+      return Collections.singletonList(task.apply(items));
+    }
+
+    List<ForkJoinTask<R>> submitted = new ArrayList<>(chunks);
+    int i = 0;
+    try {
+      for (; i < chunks; i++) {
+        List<T> chunk = items.subList(items.size() * i / chunks, items.size() * (i + 1) / chunks);
+        submitted.add(pool.submit(() -> task.apply(chunk)));
+      }
+    } catch (RejectedExecutionException e) {
+      // Shut down after the check above - the rest runs here
+    }
+
+    List<R> results = new ArrayList<>(chunks);
+    for (ForkJoinTask<R> chunk : submitted) {
+      results.add(chunk.join());
+    }
+    for (; i < chunks; i++) {
+      results.add(
+          task.apply(items.subList(items.size() * i / chunks, items.size() * (i + 1) / chunks)));
+    }
+    return results;
+  }
+}
@@ -0,0 +1,87 @@
+package com.example.vtracer.util;
+
+import java.util.Arrays;
+
+/**
+ * Character trie answering "does this name start with one of the prefixes"
+ *
+ * <p>Built for class names: '/' and '.' are treated as the same character, so one trie matches
+ * both JVM internal names ({@code java/lang/String}) and binary names ({@code java.lang.String}).
+ * A lookup walks the name once, however many prefixes there are, and never allocates.
+ */
+public final class PrefixTrie {
+
+  private char[][] labels;
+  private int[][] children;
+  private boolean[] terminal;
+  private int size;
+
+  public PrefixTrie(String... prefixes) {
+    this.labels = new char[16][];
+    this.children = new int[16][];
+    this.terminal = new boolean[16];
+    this.size = 1;
+    labels[0] = new char[0];
+    children[0] = new int[0];
+    for (String prefix : prefixes) {
+      add(prefix);
+    }
+  }
+
+  private void add(String prefix) {
+    int node = 0;
+    for (int i = 0; i < prefix.length(); i++) {
+      char c = normalize(prefix.charAt(i));
+      int child = childOf(node, c);
+      if (child < 0) {
+        child = newNode();
+        labels[node] = Arrays.copyOf(labels[node], labels[node].length + 1);
+        children[node] = Arrays.copyOf(children[node], children[node].length + 1);
+        labels[node][labels[node].length - 1] = c;
+        children[node][children[node].length - 1] = child;
+      }
+      node = child;
+    }
+    terminal[node] = true;
+  }
+
+  private int newNode() {
+    if (size == terminal.length) {
+      labels = Arrays.copyOf(labels, size * 2);
+      children = Arrays.copyOf(children, size * 2);
+      terminal = Arrays.copyOf(terminal, size * 2);
+    }
+    labels[size] = new char[0];
+    children[size] = new int[0];
+    return size++;
+  }
+
+  private int childOf(int node, char c) {
+    char[] nodeLabels = labels[node];
+    for (int i = 0; i < nodeLabels.length; i++) {
+      if (nodeLabels[i] == c) {
+        return children[node][i];
+      }
+    }
+    return -1;
+  }
+
+  /** True if some prefix is a prefix of {@code name} */
+  public boolean matchesPrefixOf(CharSequence name) {
+    int node = 0;
+    for (int i = 0; i < name.length(); i++) {
+      if (terminal[node]) {
+        return true;
+      }
+      node = childOf(node, normalize(name.charAt(i)));
+      if (node < 0) {
+        return false;
+      }
+    }
+    return terminal[node];
+  }
+
+  private static char normalize(char c) {
+    return c == '/' ? '.' : c;
+  }
+}
@@ -18,6 +18,34 @@ public class TimeUtils {
     return nanos / 1_000_000_000.0;
   }
 
+  /**
+   * Parse a duration such as "500ns", "20us", "5ms", "1s", "5m" or "1h" to nanoseconds (no unit =
+   * nanos)
+   */
+  public static long parseNanos(String duration) {
+    String value = duration.trim().toLowerCase();
+    long unit = 1;
+    if (value.endsWith("ns")) {
+      value = value.substring(0, value.length() - 2);
+    } else if (value.endsWith("us") || value.endsWith("µs")) {
+      value = value.substring(0, value.length() - 2);
+      unit = 1_000;
+    } else if (value.endsWith("ms")) {
+      value = value.substring(0, value.length() - 2);
+      unit = 1_000_000;
+    } else if (value.endsWith("s")) {
+      value = value.substring(0, value.length() - 1);
+      unit = 1_000_000_000;
+    } else if (value.endsWith("m")) {
+      value = value.substring(0, value.length() - 1);
+      unit = 60_000_000_000L;
+    } else if (value.endsWith("h")) {
+      value = value.substring(0, value.length() - 1);
+      unit = 3_600_000_000_000L;
+    }
+    return Long.parseLong(value.trim()) * unit;
+  }
+
   /** Format nanoseconds as human-readable string */
   public static String formatNanos(long nanos) {
     if (nanos < 1_000) {
@@ -0,0 +1,159 @@
+package com.example.vtracer.Instrumentation;
+
+import static net.bytebuddy.matcher.ElementMatchers.isMethod;
+
+import com.example.vtracer.agent.AttachMetrics;
+import com.example.vtracer.config.VTracerConfig;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.agent.ByteBuddyAgent;
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.asm.Advice;
+import net.bytebuddy.dynamic.DynamicType;
+import net.bytebuddy.dynamic.loading.ByteArrayClassLoader;
+import net.bytebuddy.implementation.FixedValue;
+import net.bytebuddy.matcher.ElementMatchers;
+import net.bytebuddy.pool.TypePool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Attach cost of {@link InstrumentationSetup} over a few thousand loaded classes
+ *
+ * <p>{@code installOn} is the old attach: ByteBuddy runs the type matcher on every loaded class and
+ * retransforms all matches in one call, so nothing is traced until it returns. {@code
+ * rawThenBatches} is the current one: the raw transformer is registered behind the prefix filter,
+ * then the matches are retransformed in batches with a shared type pool cache. {@code
+ * transformerReady} is how long the current attach takes before newly loaded classes are traced.
+ * Batches are not paused here; the configured pause adds {@code pause * (classes / batch - 1)}.
+ *
+ * <p>Most of the time is spent transforming, outside the safepoint. Add {@code -jvmArgsAppend
+ * -Xlog:redefine+class+timer=info} to see the safepoint part of each call as {@code doit}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgs = "-XX:+EnableDynamicAgentLoading")
+public class AttachBenchmark {
+
+  private static final String PACKAGE = "bench.generated.";
+  private static final int METHODS = 8;
+
+  @Param({"2000", "5000"})
+  int classes;
+
+  private Instrumentation inst;
+  private VTracerConfig config;
+  private Advice advice;
+  private List<Class<?>> loaded;
+  private ClassFileTransformer installed;
+
+  @Setup(Level.Trial)
+  public void setUp() throws ClassNotFoundException {
+    inst = ByteBuddyAgent.install();
+    config = VTracerConfig.builder().classInclude(PACKAGE.replace(".", "\\.") + ".*").build();
+    advice = Advice.withCustomMapping().bind(MethodId.class, 0).to(MethodAdvice.class);
+
+    // One loader, and a shared super type, as an application's classes would have
+    Map<String, byte[]> types = new HashMap<>();
+    DynamicType.Unloaded<?> base =
+        new ByteBuddy()
+            .subclass(Object.class)
+            .name(PACKAGE + "Base")
+            .modifiers(Modifier.PUBLIC | Modifier.ABSTRACT)
+            .make();
+    types.put(base.getTypeDescription().getName(), base.getBytes());
+    for (int i = 0; i < classes; i++) {
+      DynamicType.Builder<?> type =
+          new ByteBuddy().subclass(base.getTypeDescription()).name(PACKAGE + "C" + i);
+      for (int m = 0; m < METHODS; m++) {
+        type =
+            type.defineMethod("m" + m, int.class, Modifier.PUBLIC).intercept(FixedValue.value(m));
+      }
+      DynamicType.Unloaded<?> made = type.make();
+      types.put(made.getTypeDescription().getName(), made.getBytes());
+    }
+
+    ClassLoader loader = new ByteArrayClassLoader(AttachBenchmark.class.getClassLoader(), types);
+    loaded = new ArrayList<>(classes);
+    for (int i = 0; i < classes; i++) {
+      loaded.add(Class.forName(PACKAGE + "C" + i, true, loader));
+    }
+  }
+
+  @TearDown(Level.Invocation)
+  public void removeTransformer() {
+    if (installed != null) {
+      inst.removeTransformer(installed);
+      installed = null;
+    }
+  }
+
+  /** Matcher chain on every loaded type, one retransformation of all matches */
+  @Benchmark
+  public Object installOn() {
+    installed = agentBuilder().installOn(inst);
+    return installed;
+  }
+
+  /** Raw transformer behind the prefix filter, then batched retransformation */
+  @Benchmark
+  public int rawThenBatches() {
+    AttachMetrics metrics = new AttachMetrics();
+    ConcurrentMap<ClassLoader, TypePool.CacheProvider> typePoolCache = new ConcurrentHashMap<>();
+    installed =
+        new PrefixFilteringTransformer(
+            agentBuilder()
+                .with(new AgentBuilder.PoolStrategy.WithTypePoolCache.Simple(typePoolCache))
+                .makeRaw(),
+            metrics);
+    inst.addTransformer(installed, true);
+
+    ClassRetransformer retransformer =
+        new ClassRetransformer(inst, config.getRetransformBatchSize(), 0);
+    List<Class<?>> matching = retransformer.loadedClasses(config::matchesClass);
+    return retransformer.retransform(matching);
+  }
+
+  /** Time until classes loaded from now on are traced, before any retransformation */
+  @Benchmark
+  public int transformerReady() {
+    installed = new PrefixFilteringTransformer(agentBuilder().makeRaw(), new AttachMetrics());
+    inst.addTransformer(installed, true);
+    return loaded.size();
+  }
+
+  private AgentBuilder agentBuilder() {
+    return new AgentBuilder.Default()
+        .with(AgentBuilder.RedefinitionStrategy.RETRANSFORMATION)
+        .with(AgentBuilder.InitializationStrategy.NoOp.INSTANCE)
+        .with(AgentBuilder.TypeStrategy.Default.REDEFINE)
+        .ignore(ElementMatchers.nameStartsWith("com.example.vtracer"))
+        .type(type -> config.matchesClass(type.getName()))
+        .transform(
+            (builder, typeDescription, classLoader, module, protectionDomain) ->
+                builder.visit(advice.on(isMethod())));
+  }
+}
@@ -0,0 +1,105 @@
+package com.example.vtracer.analysis.calltree;
+
+import com.example.vtracer.analysis.flamegraph.builder.FlameGraphBuilder;
+import com.example.vtracer.tracing.model.EventBatch;
+import com.example.vtracer.tracing.model.MethodRegistry;
+import com.example.vtracer.tracing.model.TraceEvent;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Flush analysis cost by {@code analysisParallelism}: replaying a drained batch into a call tree,
+ * and folding that tree into a flame graph
+ *
+ * <p>The batch holds {@value #SOURCES} sources of {@value #TRACES_PER_SOURCE} complete traces
+ * each, about 330k records, well above the size at which both steps go parallel. 1 runs
+ * everything on the calling thread, as the agent does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallTreeAnalyzerBenchmark {
+
+  private static final int SOURCES = 64;
+  private static final int TRACES_PER_SOURCE = 48;
+  // Callees per caller, outermost level first: 53 calls per trace
+  private static final int[] FAN_OUT = {4, 4, 2};
+
+  @Param({"1", "2", "4"})
+  int analysisParallelism;
+
+  private ForkJoinPool pool;
+  private CallTreeAnalyzer analyzer;
+  private MethodRegistry registry;
+  private EventBatch batch;
+  private CallTreeAnalyzer.CallTree tree;
+
+  @Setup
+  public void setUp() {
+    pool = analysisParallelism > 1 ? new ForkJoinPool(analysisParallelism) : null;
+    analyzer = new CallTreeAnalyzer(pool);
+    registry = new MethodRegistry();
+    for (int i = 0; i < 16; i++) {
+      registry.register("Benchmark", "method" + i);
+    }
+
+    batch = new EventBatch(1 << 19);
+    ByteBuffer record = EventBatch.allocate(1, TraceEvent.BYTES);
+    long[] clock = {0};
+    for (int source = 0; source < SOURCES; source++) {
+      batch.beginSegment(source);
+      for (int trace = 0; trace < TRACES_PER_SOURCE; trace++) {
+        writeCall(record, source, 0, 0, clock);
+      }
+    }
+    tree = analyzer.buildTree(batch);
+  }
+
+  @TearDown
+  public void tearDown() {
+    if (pool != null) {
+      pool.shutdown();
+    }
+  }
+
+  private void writeCall(ByteBuffer record, long threadId, int methodId, int level, long[] clock) {
+    TraceEvent.writeAt(record, 0, threadId, methodId, clock[0]++, TraceEvent.Type.ENTER);
+    batch.appendRecord(record, 0);
+    if (level < FAN_OUT.length) {
+      for (int i = 0; i < FAN_OUT[level]; i++) {
+        writeCall(record, threadId, (methodId * 4 + i + 1) % 16, level + 1, clock);
+      }
+    }
+    clock[0] += 10;
+    TraceEvent.writeAt(record, 0, threadId, methodId, clock[0]++, TraceEvent.Type.EXIT);
+    batch.appendRecord(record, 0);
+  }
+
+  /** Replay the batch into a call tree; traces are complete, so nothing is carried */
+  @Benchmark
+  public CallTreeAnalyzer.CallTree buildTree() {
+    return analyzer.buildTree(batch);
+  }
+
+  /** Fold the call tree into a flame graph, self time included */
+  @Benchmark
+  public long buildFlameGraph() {
+    return FlameGraphBuilder.build(tree, registry, pool).getTotalTime();
+  }
+}
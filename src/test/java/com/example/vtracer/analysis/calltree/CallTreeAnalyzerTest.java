@@ -0,0 +1,86 @@
+package com.example.vtracer.analysis.calltree;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.example.vtracer.analysis.calltree.CallTreeAnalyzer.CallTree;
+import com.example.vtracer.tracing.model.EventBatch;
+import com.example.vtracer.tracing.model.TraceEvent;
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Test;
+
+class CallTreeAnalyzerTest {
+
+  private static final int SOURCE = 0;
+  private static final long THREAD = 1;
+  private static final int A = 1;
+  private static final int B = 2;
+  private static final int C = 3;
+
+  private final ByteBuffer record = EventBatch.allocate(1, TraceEvent.BYTES);
+
+  @Test
+  void deferredEnterAfterCutStartsAtTheCut() {
+    CallTreeAnalyzer analyzer = new CallTreeAnalyzer();
+
+    // A is open when the batch is cut at B's exit
+    EventBatch first = new EventBatch(8);
+    first.beginSegment(SOURCE);
+    append(first, A, 0, TraceEvent.Type.ENTER);
+    append(first, B, 10, TraceEvent.Type.ENTER);
+    append(first, B, 50, TraceEvent.Type.EXIT);
+    CallTree firstTree = analyzer.buildTree(first);
+
+    CallTree.Node firstA = firstTree.getRoots().get(0);
+    assertThat(firstA.getStartTime()).isEqualTo(0);
+    assertThat(firstA.getEndTime()).isEqualTo(50);
+
+    // C's ENTER was held back by the duration filter and carries its real start, before the cut
+    EventBatch second = new EventBatch(8);
+    second.beginSegment(SOURCE);
+    append(second, C, 20, TraceEvent.Type.ENTER);
+    append(second, C, 80, TraceEvent.Type.EXIT);
+    append(second, A, 100, TraceEvent.Type.EXIT);
+    CallTree secondTree = analyzer.buildTree(second);
+
+    assertThat(secondTree.getRoots()).hasSize(1);
+    CallTree.Node secondA = secondTree.getRoots().get(0);
+    assertThat(secondA.getStartTime()).isEqualTo(50);
+    assertThat(secondA.getEndTime()).isEqualTo(100);
+    assertThat(secondA.getChildren()).hasSize(1);
+    CallTree.Node c = secondA.getChildren().get(0);
+    assertThat(c.getMethodId()).isEqualTo(C);
+    assertThat(c.getStartTime()).isEqualTo(50);
+    assertThat(c.getTotalTime()).isEqualTo(30);
+
+    new SelfTimeCalculator().calculate(secondTree);
+    assertThat(secondA.getSelfTime()).isEqualTo(20);
+  }
+
+  @Test
+  void enterAfterCutKeepsItsOwnStart() {
+    CallTreeAnalyzer analyzer = new CallTreeAnalyzer();
+
+    EventBatch first = new EventBatch(8);
+    first.beginSegment(SOURCE);
+    append(first, A, 0, TraceEvent.Type.ENTER);
+    append(first, B, 10, TraceEvent.Type.ENTER);
+    append(first, B, 50, TraceEvent.Type.EXIT);
+    analyzer.buildTree(first);
+
+    EventBatch second = new EventBatch(8);
+    second.beginSegment(SOURCE);
+    append(second, C, 60, TraceEvent.Type.ENTER);
+    append(second, C, 80, TraceEvent.Type.EXIT);
+    append(second, A, 100, TraceEvent.Type.EXIT);
+    CallTree secondTree = analyzer.buildTree(second);
+
+    CallTree.Node c = secondTree.getRoots().get(0).getChildren().get(0);
+    assertThat(c.getStartTime()).isEqualTo(60);
+    assertThat(c.getTotalTime()).isEqualTo(20);
+  }
+
+  private void append(EventBatch batch, int methodId, long timestamp, TraceEvent.Type type) {
+    TraceEvent.writeAt(record, 0, THREAD, methodId, timestamp, type);
+    batch.appendRecord(record, 0);
+  }
+}
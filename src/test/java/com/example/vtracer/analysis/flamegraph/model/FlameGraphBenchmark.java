@@ -0,0 +1,196 @@
+package com.example.vtracer.analysis.flamegraph.model;
+
+import com.example.vtracer.tracing.model.MethodRegistry;
+import com.example.vtracer.util.TimeUtils;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building, merging and exporting flame graphs: the trie of method IDs against the map of
+ * folded-stack strings it replaced
+ *
+ * <p>Samples are drawn from {@value #PATHS} distinct call paths, since a profile sees the same
+ * paths over and over. Building adds {@value #PARTS} x {@value #SAMPLES_PER_PART} samples; merging
+ * combines {@value #PARTS} partial graphs (as from per-thread trees or successive flushes); export
+ * writes the merged graph as folded lines to a discarding writer. The string side keeps the old
+ * representation: a joined {@code String} per sample, merged into a map with {@link Map#merge},
+ * or, as the per-thread merge did, split back into frames first.
+ * Run with {@code -prof gc} to compare allocation as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlameGraphBenchmark {
+
+  private static final int PARTS = 16;
+  private static final int SAMPLES_PER_PART = 2000;
+  private static final int PATHS = 500;
+  private static final int METHODS = 64;
+
+  @Param({"8", "32"})
+  int depth;
+
+  private MethodRegistry registry;
+  // Per part, the sampled stacks (root first) and their weights
+  private int[][][] samples;
+  private long[][] weights;
+  private FlameGraph[] trieParts;
+  private List<Map<String, Long>> stringParts;
+  private FlameGraph trieMerged;
+  private Map<String, Long> stringMerged;
+
+  @Setup
+  public void setUp() {
+    registry = new MethodRegistry();
+    for (int i = 0; i < METHODS; i++) {
+      registry.register("com.example.app.Service" + (i % 8), "method" + i);
+    }
+
+    // Few distinct callers near the root, as real stacks share their outer frames
+    Random random = new Random(42);
+    int[][] paths = new int[PATHS][depth];
+    for (int[] path : paths) {
+      for (int d = 0; d < depth; d++) {
+        path[d] = random.nextInt(Math.min(METHODS, 2 + d * 2));
+      }
+    }
+
+    samples = new int[PARTS][SAMPLES_PER_PART][];
+    weights = new long[PARTS][SAMPLES_PER_PART];
+    for (int part = 0; part < PARTS; part++) {
+      for (int i = 0; i < SAMPLES_PER_PART; i++) {
+        samples[part][i] = paths[random.nextInt(PATHS)];
+        weights[part][i] = (1 + random.nextInt(50)) * 1_000_000L;
+      }
+    }
+
+    trieParts = new FlameGraph[PARTS];
+    stringParts = new ArrayList<>(PARTS);
+    for (int part = 0; part < PARTS; part++) {
+      trieParts[part] = buildTrie(part);
+      stringParts.add(buildStrings(part));
+    }
+    trieMerged = mergeTrie();
+    stringMerged = mergeStrings();
+  }
+
+  private FlameGraph buildTrie(int part) {
+    FlameGraph graph = new FlameGraph(registry);
+    for (int i = 0; i < SAMPLES_PER_PART; i++) {
+      graph.addSample(samples[part][i], weights[part][i]);
+    }
+    return graph;
+  }
+
+  private Map<String, Long> buildStrings(int part) {
+    Map<String, Long> graph = new HashMap<>();
+    for (int i = 0; i < SAMPLES_PER_PART; i++) {
+      StringBuilder folded = new StringBuilder();
+      for (int methodId : samples[part][i]) {
+        if (folded.length() > 0) {
+          folded.append(';');
+        }
+        folded.append(registry.getSignature(methodId));
+      }
+      graph.merge(folded.toString(), weights[part][i], Long::sum);
+    }
+    return graph;
+  }
+
+  @Benchmark
+  public int buildTrie() {
+    int paths = 0;
+    for (int part = 0; part < PARTS; part++) {
+      paths += buildTrie(part).getRoot().getChildren().size();
+    }
+    return paths;
+  }
+
+  @Benchmark
+  public int buildStrings() {
+    int paths = 0;
+    for (int part = 0; part < PARTS; part++) {
+      paths += buildStrings(part).size();
+    }
+    return paths;
+  }
+
+  @Benchmark
+  public FlameGraph mergeTrie() {
+    FlameGraph merged = new FlameGraph(registry);
+    for (FlameGraph part : trieParts) {
+      merged.addAll(part);
+    }
+    return merged;
+  }
+
+  @Benchmark
+  public Map<String, Long> mergeStrings() {
+    Map<String, Long> merged = new HashMap<>();
+    for (Map<String, Long> part : stringParts) {
+      for (Map.Entry<String, Long> entry : part.entrySet()) {
+        merged.merge(entry.getKey(), entry.getValue(), Long::sum);
+      }
+    }
+    return merged;
+  }
+
+  /** The old per-thread merge, which split every folded key back into frames and joined them */
+  @Benchmark
+  public Map<String, Long> mergeSplitStrings() {
+    Map<String, Long> merged = new HashMap<>();
+    for (Map<String, Long> part : stringParts) {
+      for (Map.Entry<String, Long> entry : part.entrySet()) {
+        String folded = String.join(";", Arrays.asList(entry.getKey().split(";")));
+        merged.merge(folded, entry.getValue(), Long::sum);
+      }
+    }
+    return merged;
+  }
+
+  @Benchmark
+  public void exportTrie() throws IOException {
+    Writer writer = Writer.nullWriter();
+    trieMerged.forEachFolded((stack, nanos) -> writeLine(writer, stack, nanos));
+  }
+
+  @Benchmark
+  public void exportStrings() throws IOException {
+    Writer writer = Writer.nullWriter();
+    for (Map.Entry<String, Long> entry : stringMerged.entrySet()) {
+      writeLine(writer, entry.getKey(), entry.getValue());
+    }
+  }
+
+  /** One folded line, as FoldedStackExporter writes it */
+  private static void writeLine(Writer writer, CharSequence stack, long nanos) throws IOException {
+    long samples = TimeUtils.nanosToMillis(nanos);
+    if (samples > 0) {
+      writer.append(stack);
+      writer.write(" ");
+      writer.write(String.valueOf(samples));
+      writer.write("\n");
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package com.example.vtracer.tracing.collector;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Push/pop cost of {@link CallStack}
+ *
+ * <p>Run with {@code -prof gc}: once the stack has reached its depth, {@code gc.alloc.rate.norm}
+ * should stay at 0 B/op for every depth.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallStackBenchmark {
+
+  @Param({"8", "64", "512"})
+  int depth;
+
+  private CallStack stack;
+
+  @Setup
+  public void setUp() {
+    stack = new CallStack();
+    // Grow the arrays once, as a thread's first deep call would
+    for (int i = 0; i < depth; i++) {
+      stack.push(i, i);
+    }
+    while (!stack.isEmpty()) {
+      stack.pop();
+    }
+  }
+
+  /** One call chain of {@code depth} frames entered and left */
+  @Benchmark
+  public long pushPop() {
+    for (int i = 0; i < depth; i++) {
+      stack.push(i, i);
+    }
+    long innermost = stack.peekStartTime();
+    while (!stack.isEmpty()) {
+      stack.pop();
+    }
+    return innermost;
+  }
+
+  /** Recursion: the same method ID on every frame */
+  @Benchmark
+  public long recursivePushPop() {
+    for (int i = 0; i < depth; i++) {
+      stack.push(7, i);
+    }
+    long innermost = stack.peekStartTime();
+    while (!stack.isEmpty()) {
+      stack.pop();
+    }
+    return innermost;
+  }
+}
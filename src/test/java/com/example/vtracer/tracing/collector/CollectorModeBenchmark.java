@@ -0,0 +1,116 @@
+package com.example.vtracer.tracing.collector;
+
+import com.example.vtracer.config.VTracerConfig;
+import com.example.vtracer.tracing.jfr.JfrRecorder;
+import com.example.vtracer.tracing.model.MethodRegistry;
+import com.example.vtracer.tracing.sampling.Sampler;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of one traced call in each collector mode, JFR sink against the in-house rings
+ *
+ * <p>Every trace is sampled. Each invocation records one trace of {@value #CALLS} nested calls,
+ * which fits a default ring in every mode, then drains it as a flush would, so ring modes pay for
+ * their drain while JFR mode pays for its commits and recording.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CollectorModeBenchmark {
+
+  private static final int CALLS = 1024;
+
+  @Param({"EVENTS", "SPANS", "AGGREGATE", "JFR"})
+  String mode;
+
+  private CallTreeCollector collector;
+  private int methodId;
+  private JfrRecorder recorder;
+  private Path recordingDir;
+
+  @Setup
+  public void setUp() throws IOException {
+    VTracerConfig.CollectorMode collectorMode = VTracerConfig.CollectorMode.valueOf(mode);
+    VTracerConfig config = VTracerConfig.builder().collectorMode(collectorMode).build();
+    MethodRegistry registry = new MethodRegistry();
+    methodId = registry.register("Benchmark", "call");
+
+    if (collectorMode == VTracerConfig.CollectorMode.JFR) {
+      recordingDir = Files.createTempDirectory("vtracer-bench");
+      recorder =
+          new JfrRecorder(
+              registry,
+              recordingDir.resolve("bench.jfr"),
+              config.getMinDurationNanos(),
+              config.getJfrMaxSizeBytes(),
+              config.getJfrMaxAgeNanos());
+      recorder.start();
+    }
+    collector = new CallTreeCollector(config, AlwaysSampler.INSTANCE, null);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    collector.cleanup();
+    if (recorder != null) {
+      Files.deleteIfExists(recorder.stop());
+      Files.deleteIfExists(recordingDir);
+    }
+  }
+
+  /** One call nested in a sampled trace, drain included */
+  @Benchmark
+  @OperationsPerInvocation(CALLS)
+  public int tracedCall() {
+    collector.onMethodEnter(methodId);
+    for (int i = 0; i < CALLS; i++) {
+      collector.onMethodEnter(methodId);
+      collector.onMethodExit();
+    }
+    collector.onMethodExit();
+
+    if (mode.equals("AGGREGATE")) {
+      return collector.drainProfile().getChildren().size();
+    }
+    return collector.drain().size();
+  }
+
+  /** Samples every trace */
+  private enum AlwaysSampler implements Sampler {
+    INSTANCE;
+
+    @Override
+    public boolean shouldSample(int stackDepth) {
+      return true;
+    }
+
+    @Override
+    public void adjust(double measuredOverhead) {
+      // Fixed
+    }
+
+    @Override
+    public double getSampleRate() {
+      return 1.0;
+    }
+  }
+}